@@ -0,0 +1,179 @@
+package io.amberdata.inbound.stellar.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.stellar.sdk.FormatException;
+import org.stellar.sdk.StrKey;
+
+/**
+ * Approximate and memory bounded set of Stellar account IDs.
+ *
+ * <p>The set is made of several Bloom filter generations sharing the configured memory. Accounts
+ * are added to the newest generation, and once it holds as many accounts as it was sized for the
+ * oldest generation is dropped and a new one is started. The memory used therefore never grows
+ * past the configured ceiling, at the price of eventually forgetting accounts not seen for a long
+ * time.
+ */
+public class AccountBloomFilter {
+
+  private static final int GENERATIONS = 4;
+
+  private final int  bitsPerGeneration;
+  private final int  hashFunctions;
+  private final long capacityPerGeneration;
+
+  private volatile Generation[] generations;
+
+  /**
+   * Default constructor.
+   *
+   * @param maxBytes          the maximum amount of memory used by the filter
+   * @param falsePositiveRate the expected rate of accounts wrongly reported as already seen
+   */
+  public AccountBloomFilter(long maxBytes, double falsePositiveRate) {
+    // Every generation can report a false positive, size them so that the sum stays below the
+    // expected rate.
+    final double generationRate = falsePositiveRate / GENERATIONS;
+    final double bitsPerAccount = -Math.log(generationRate) / (Math.log(2) * Math.log(2));
+
+    this.bitsPerGeneration = (int) Math.min(
+        Math.max(64L, maxBytes * Byte.SIZE / GENERATIONS),
+        (long) Integer.MAX_VALUE - 63
+    ) & ~63;
+    this.hashFunctions = (int) Math.max(1, Math.round(bitsPerAccount * Math.log(2)));
+    this.capacityPerGeneration = Math.max(1L, (long) (this.bitsPerGeneration / bitsPerAccount));
+
+    this.generations = new Generation[] { new Generation(this.bitsPerGeneration) };
+  }
+
+  /**
+   * Adds the account to the set.
+   *
+   * @param accountId the account ID
+   *
+   * @return true if the account was certainly not part of the set, false if it might have been.
+   */
+  public boolean add(String accountId) {
+    final long[] hashes = AccountBloomFilter.hash(accountId);
+
+    Generation[] current = this.generations;
+    for (Generation generation : current) {
+      if (generation.mightContain(hashes[0], hashes[1], this.hashFunctions)) {
+        return false;
+      }
+    }
+
+    Generation newest = current[current.length - 1];
+    newest.put(hashes[0], hashes[1], this.hashFunctions);
+
+    if (newest.count.incrementAndGet() >= this.capacityPerGeneration) {
+      this.rotate(newest);
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the approximate number of accounts currently in the set.
+   *
+   * @return the approximate number of accounts in the set.
+   */
+  public long size() {
+    long count = 0;
+    for (Generation generation : this.generations) {
+      count += generation.count.get();
+    }
+    return count;
+  }
+
+  /**
+   * Returns the amount of memory currently used by the set.
+   *
+   * @return the amount of memory used, in bytes.
+   */
+  public long sizeInBytes() {
+    return (long) this.generations.length * this.bitsPerGeneration / Byte.SIZE;
+  }
+
+  private synchronized void rotate(Generation full) {
+    Generation[] current = this.generations;
+    if (current[current.length - 1] != full) {
+      // Another thread already started a new generation.
+      return;
+    }
+
+    final int kept = Math.min(current.length, GENERATIONS - 1);
+
+    Generation[] next = new Generation[kept + 1];
+    System.arraycopy(current, current.length - kept, next, 0, kept);
+    next[kept] = new Generation(this.bitsPerGeneration);
+
+    this.generations = next;
+  }
+
+  private static long[] hash(String accountId) {
+    try {
+      // Account IDs are encoded ed25519 public keys, their 32 bytes are already evenly
+      // distributed and can directly be used as hashes.
+      final byte[] key = StrKey.decodeStellarAccountId(accountId);
+      return new long[] {
+        AccountBloomFilter.toLong(key, 0),
+        AccountBloomFilter.toLong(key, Long.BYTES) | 1
+      };
+    } catch (FormatException | IllegalArgumentException e) {
+      final long hash = AccountBloomFilter.mix(accountId.hashCode());
+      return new long[] { hash, AccountBloomFilter.mix(hash) | 1 };
+    }
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long value = 0;
+    for (int i = offset; i < offset + Long.BYTES; ++i) {
+      value = (value << 8) | (bytes[i] & 0xFF);
+    }
+    return value;
+  }
+
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
+
+  private static class Generation {
+    private final AtomicLongArray bits;
+    private final long            size;
+    private final AtomicLong      count;
+
+    Generation(int size) {
+      this.bits  = new AtomicLongArray(size / Long.SIZE);
+      this.size  = size;
+      this.count = new AtomicLong();
+    }
+
+    boolean mightContain(long hash1, long hash2, int hashFunctions) {
+      for (int i = 0; i < hashFunctions; ++i) {
+        final long index = Math.floorMod(hash1 + i * hash2, this.size);
+        if ((this.bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void put(long hash1, long hash2, int hashFunctions) {
+      for (int i = 0; i < hashFunctions; ++i) {
+        final long index = Math.floorMod(hash1 + i * hash2, this.size);
+        final int  word  = (int) (index >>> 6);
+        final long mask  = 1L << index;
+
+        long value = this.bits.get(word);
+        while ((value & mask) == 0 && !this.bits.compareAndSet(word, value, value | mask)) {
+          value = this.bits.get(word);
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+package io.amberdata.inbound.stellar.client;
+
+import io.amberdata.inbound.stellar.configuration.properties.HorizonServerProperties;
+import io.amberdata.inbound.stellar.configuration.subscribers.PipelineSchedulers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.stereotype.Component;
+
+import org.stellar.sdk.responses.AccountResponse;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Loads the details of Stellar accounts, coalescing concurrent requests for the same account.
+ *
+ * <p>While the details of an account are being fetched from Horizon, every other request for that
+ * account shares the same in-flight request instead of issuing its own. Once completed, further
+ * requests are served by the account cache of {@link HorizonServer}.
+ */
+@Component
+public class AccountLoader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AccountLoader.class);
+
+  private final HorizonServer                                           server;
+  private final Scheduler                                               scheduler;
+  private final ConcurrentMap<String, CompletableFuture<AccountResponse>> inFlight;
+  private final ConcurrentMap<String, CompletableFuture<AccountResponse>> freshInFlight;
+
+  /**
+   * Default constructor.
+   *
+   * @param server           the Horizon server
+   * @param serverProperties the server properties
+   */
+  public AccountLoader(HorizonServer server, HorizonServerProperties serverProperties) {
+    LOG.info(
+        "Configuring account loader with threads: {}",
+        serverProperties.getAccountLoaderThreads()
+    );
+
+    this.server        = server;
+    this.scheduler     = PipelineSchedulers.newBounded(
+      "account-loader",
+      serverProperties.getAccountLoaderThreads()
+    );
+    this.inFlight      = new ConcurrentHashMap<>();
+    this.freshInFlight = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Loads the details of the specified account.
+   *
+   * @param accountId the alphanumeric account ID to fetch details for
+   *
+   * @return the details of the account, completed with null if they could not be fetched.
+   */
+  public CompletableFuture<AccountResponse> load(String accountId) {
+    return this.load(accountId, this.inFlight, this.server::fetchAccountDetails);
+  }
+
+  private CompletableFuture<AccountResponse> load(
+      String                                                    accountId,
+      ConcurrentMap<String, CompletableFuture<AccountResponse>> inFlight,
+      Function<String, AccountResponse>                         fetcher
+  ) {
+    if (accountId == null || accountId.isEmpty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    CompletableFuture<AccountResponse> future = inFlight.get(accountId);
+    if (future != null) {
+      Metrics.count("account.loader.coalesced", 1);
+      return future;
+    }
+
+    CompletableFuture<AccountResponse> newFuture = new CompletableFuture<>();
+
+    future = inFlight.putIfAbsent(accountId, newFuture);
+    if (future != null) {
+      Metrics.count("account.loader.coalesced", 1);
+      return future;
+    }
+
+    try {
+      this.scheduler.schedule(() -> {
+        try {
+          newFuture.complete(fetcher.apply(accountId));
+        } catch (Throwable t) {
+          newFuture.completeExceptionally(t);
+        } finally {
+          inFlight.remove(accountId, newFuture);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The loader is shutting down.
+      inFlight.remove(accountId, newFuture);
+      newFuture.completeExceptionally(e);
+    }
+
+    return newFuture;
+  }
+
+  /**
+   * Loads the details of the specified account once subscribed to.
+   *
+   * @param accountId the alphanumeric account ID to fetch details for
+   *
+   * @return the details of the account, empty if they could not be fetched.
+   */
+  public Mono<AccountResponse> loadMono(String accountId) {
+    return Mono.defer(() -> Mono.fromFuture(this.load(accountId)));
+  }
+
+  /**
+   * Loads the details of the specified account and waits for them.
+   *
+   * @param accountId the alphanumeric account ID to fetch details for
+   *
+   * @return the details of the account, or null if they could not be fetched.
+   */
+  public AccountResponse loadBlocking(String accountId) {
+    return this.load(accountId).join();
+  }
+
+  /**
+   * Loads the current details of the specified account, bypassing the account cache, and waits
+   * for them. Concurrent requests for the same account still share the same in-flight request.
+   *
+   * @param accountId the alphanumeric account ID to fetch details for
+   *
+   * @return the current details of the account, or null if they could not be fetched.
+   */
+  public AccountResponse loadFreshBlocking(String accountId) {
+    return this.load(accountId, this.freshInFlight, this.server::fetchFreshAccountDetails).join();
+  }
+
+  /**
+   * Disposes of the pool loading the accounts once the pipelines are stopped.
+   */
+  @PreDestroy
+  public void dispose() {
+    this.scheduler.dispose();
+  }
+
+}
@@ -0,0 +1,219 @@
+package io.amberdata.inbound.stellar.client;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram over a sliding window, safe to update from any thread.
+ *
+ * <p>Durations are recorded in nanoseconds into log-linear buckets, each power of two being split
+ * into {@value #SUB_BUCKETS} buckets, which bounds the relative error of the percentiles to about
+ * 6%. The window is made of {@value #WINDOW_SLICES} slices of {@value #SLICE_MILLIS} ms, the
+ * oldest slice being recycled once the window moves past it.
+ */
+public class Histogram {
+
+  private static final int  SUB_BUCKET_BITS = 4;
+  private static final int  SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+  private static final int  BUCKETS         = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+  private static final int  WINDOW_SLICES   = 6;
+  private static final long SLICE_MILLIS    = 10 * 1000;
+
+  private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+  private static final String[] SUFFIXES    = { ".p50", ".p90", ".p99", ".p999" };
+
+  private final String  name;
+  private final Slice[] slices;
+
+  Histogram(String name) {
+    this.name   = name;
+    this.slices = new Slice[WINDOW_SLICES];
+    for (int i = 0; i < WINDOW_SLICES; i++) {
+      this.slices[i] = new Slice();
+    }
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * Records the duration elapsed since the specified time.
+   *
+   * @param startNanos the start time, as returned by {@link System#nanoTime()}
+   *
+   * @return the duration recorded, in nanoseconds.
+   */
+  public long recordSince(long startNanos) {
+    final long duration = System.nanoTime() - startNanos;
+    this.record(duration);
+    return duration;
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration, in nanoseconds
+   */
+  public void record(long nanos) {
+    final long value = Math.max(0L, nanos);
+    final long epoch = System.currentTimeMillis() / SLICE_MILLIS;
+
+    this.slice(epoch).record(Histogram.bucketOf(value), value);
+    Metrics.maybeLog();
+  }
+
+  /**
+   * Returns a percentile of the samples of the window.
+   *
+   * @param percentile the percentile, between 0 and 1
+   *
+   * @return the percentile, in milliseconds, or 0 if the window has no samples.
+   */
+  public double percentile(double percentile) {
+    return this.window().percentile(percentile);
+  }
+
+  /**
+   * Returns the maximum of the samples of the window.
+   *
+   * @return the maximum, in milliseconds, or 0 if the window has no samples.
+   */
+  public double max() {
+    return Histogram.toMillis(this.window().max);
+  }
+
+  /**
+   * Returns the number of samples of the window.
+   *
+   * @return the number of samples.
+   */
+  public double count() {
+    return this.window().count;
+  }
+
+  /**
+   * Adds the percentiles, maximum and count of the samples of the window, in milliseconds, to the
+   * specified metrics.
+   */
+  void snapshot(Map<String, Double> metrics) {
+    final Window window = this.window();
+
+    metrics.put(this.name + ".count", (double) window.count);
+    if (window.count == 0) {
+      return;
+    }
+
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      metrics.put(this.name + SUFFIXES[i], window.percentile(PERCENTILES[i]));
+    }
+    metrics.put(this.name + ".max", Histogram.toMillis(window.max));
+  }
+
+  private Window window() {
+    final long   epoch  = System.currentTimeMillis() / SLICE_MILLIS;
+    final Window window = new Window();
+
+    for (Slice slice : this.slices) {
+      if (slice.epoch > epoch - WINDOW_SLICES) {
+        for (int i = 0; i < BUCKETS; i++) {
+          final long bucketCount = slice.buckets.get(i);
+          window.buckets[i] += bucketCount;
+          window.count      += bucketCount;
+        }
+        window.max = Math.max(window.max, slice.max.get());
+      }
+    }
+
+    return window;
+  }
+
+  private Slice slice(long epoch) {
+    final Slice slice = this.slices[(int) (epoch % WINDOW_SLICES)];
+    if (slice.epoch != epoch) {
+      synchronized (slice) {
+        if (slice.epoch != epoch) {
+          slice.reset(epoch);
+        }
+      }
+    }
+    return slice;
+  }
+
+  /* package */ static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    final int shift    = exponent - SUB_BUCKET_BITS;
+
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /* package */ static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final int sub   = bucket % SUB_BUCKETS;
+
+    return ((SUB_BUCKETS + sub + 1L) << shift) - 1;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  private static class Window {
+    private final long[] buckets = new long[BUCKETS];
+
+    private long count;
+    private long max;
+
+    double percentile(double percentile) {
+      if (this.count == 0) {
+        return 0;
+      }
+
+      final double rank = Math.ceil(percentile * this.count);
+
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += this.buckets[i];
+        if (seen >= rank) {
+          return Histogram.toMillis(Math.min(this.max, Histogram.highestValueOf(i)));
+        }
+      }
+
+      return Histogram.toMillis(this.max);
+    }
+  }
+
+  private static class Slice {
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong      max     = new AtomicLong();
+
+    private volatile long epoch = Long.MIN_VALUE;
+
+    void record(int bucket, long value) {
+      this.buckets.incrementAndGet(bucket);
+
+      long current = this.max.get();
+      while (value > current && !this.max.compareAndSet(current, value)) {
+        current = this.max.get();
+      }
+    }
+
+    void reset(long epoch) {
+      for (int i = 0; i < BUCKETS; i++) {
+        this.buckets.set(i, 0L);
+      }
+      this.max.set(0L);
+      this.epoch = epoch;
+    }
+  }
+
+}
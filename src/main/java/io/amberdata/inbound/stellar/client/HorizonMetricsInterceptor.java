@@ -0,0 +1,164 @@
+package io.amberdata.inbound.stellar.client;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import shadow.okhttp3.Interceptor;
+import shadow.okhttp3.Request;
+import shadow.okhttp3.Response;
+
+/**
+ * Records the latency, status codes, retries and size of every request sent to Horizon, by
+ * endpoint family.
+ *
+ * <p>The interceptor has to be registered both as an application interceptor, which sees each call
+ * once, and as a network interceptor, which sees each attempt of a call: attempts past the first
+ * one are retries, and sizes are the ones sent over the wire.
+ */
+class HorizonMetricsInterceptor implements Interceptor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HorizonMetricsInterceptor.class);
+
+  private static final String[] FAMILIES = {
+    "ledgers", "transactions", "operations", "effects", "accounts", "assets", "trades",
+    "order_book", "paths", "payments", "offers"
+  };
+
+  private static final String OTHER_FAMILY = "other";
+
+  private final Map<String, FamilyMetrics> families;
+  private final ThreadLocal<int[]>         attempts;
+  private final Network                    network;
+
+  HorizonMetricsInterceptor() {
+    this.families = new HashMap<>();
+    for (String family : FAMILIES) {
+      this.families.put(family, new FamilyMetrics(family));
+    }
+    this.families.put(OTHER_FAMILY, new FamilyMetrics(OTHER_FAMILY));
+
+    this.attempts = ThreadLocal.withInitial(() -> new int[1]);
+    this.network  = new Network();
+  }
+
+  /**
+   * Returns the interceptor to register as a network interceptor.
+   *
+   * @return the network interceptor.
+   */
+  Interceptor network() {
+    return this.network;
+  }
+
+  @Override
+  public Response intercept(Interceptor.Chain chain) throws IOException {
+    final Request       request = chain.request();
+    final FamilyMetrics metrics = this.familyOf(request);
+    final int[]         count   = this.attempts.get();
+    final long          start   = System.nanoTime();
+
+    count[0] = 0;
+    metrics.requests.add(1);
+
+    try {
+      final Response response = chain.proceed(request);
+
+      final long duration = metrics.latency.recordSince(start);
+      metrics.status(response.code()).add(1);
+      if (response.code() == 429) {
+        metrics.throttled.add(1);
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(
+            "request url: {} method: {} status: {} duration: {}ms",
+            request.url(),
+            request.method(),
+            response.code(),
+            duration / 1_000_000
+        );
+      }
+
+      return response;
+    } catch (IOException | RuntimeException e) {
+      metrics.latency.recordSince(start);
+      metrics.errors.add(1);
+      throw e;
+    } finally {
+      if (count[0] > 1) {
+        metrics.retries.add(count[0] - 1);
+      }
+    }
+  }
+
+  private FamilyMetrics familyOf(Request request) {
+    final List<String> segments = request.url().pathSegments();
+    for (int i = segments.size() - 1; i >= 0; i--) {
+      final FamilyMetrics metrics = this.families.get(segments.get(i));
+      if (metrics != null) {
+        return metrics;
+      }
+    }
+    return this.families.get(OTHER_FAMILY);
+  }
+
+  private class Network implements Interceptor {
+    @Override
+    public Response intercept(Interceptor.Chain chain) throws IOException {
+      // Calls are not retried across threads, the attempts are counted for the call in progress.
+      HorizonMetricsInterceptor.this.attempts.get()[0]++;
+
+      final Response response = chain.proceed(chain.request());
+
+      // The size is read from the wire response: past this interceptor a gzipped body is
+      // decompressed transparently and its length is no longer known.
+      final long length = response.body() == null ? -1 : response.body().contentLength();
+      if (length > 0) {
+        HorizonMetricsInterceptor.this.familyOf(chain.request()).bytes.add(length);
+      }
+
+      return response;
+    }
+  }
+
+  private static class FamilyMetrics {
+    private final String                                  prefix;
+    private final Histogram                               latency;
+    private final Metrics.Counter                         requests;
+    private final Metrics.Counter                         errors;
+    private final Metrics.Counter                         retries;
+    private final Metrics.Counter                         throttled;
+    private final Metrics.Counter                         bytes;
+    private final ConcurrentMap<Integer, Metrics.Counter> statuses;
+
+    FamilyMetrics(String family) {
+      this.prefix    = "horizon." + family;
+      this.latency   = Metrics.histogram(this.prefix + ".latency");
+      this.requests  = Metrics.counter(this.prefix + ".requests");
+      this.errors    = Metrics.counter(this.prefix + ".errors");
+      this.retries   = Metrics.counter(this.prefix + ".retries");
+      this.throttled = Metrics.counter(this.prefix + ".throttled");
+      this.bytes     = Metrics.counter(this.prefix + ".bytes");
+      this.statuses  = new ConcurrentHashMap<>();
+    }
+
+    Metrics.Counter status(int code) {
+      Metrics.Counter counter = this.statuses.get(code);
+      return counter != null
+        ? counter
+        : this.statuses.computeIfAbsent(
+          code,
+          key -> Metrics.counter(this.prefix + ".status." + key)
+        );
+    }
+  }
+
+}
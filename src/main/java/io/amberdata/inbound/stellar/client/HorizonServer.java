@@ -1,10 +1,19 @@
 package io.amberdata.inbound.stellar.client;
 
+import io.amberdata.inbound.stellar.configuration.properties.HorizonServerProperties;
+
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheEventListenerConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.event.EventType;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,10 +25,7 @@ import org.stellar.sdk.requests.ClientIdentificationInterceptor;
 import org.stellar.sdk.requests.ErrorResponse;
 import org.stellar.sdk.responses.AccountResponse;
 
-import shadow.okhttp3.Interceptor;
 import shadow.okhttp3.OkHttpClient;
-import shadow.okhttp3.Request;
-import shadow.okhttp3.Response;
 
 @Component
 public class HorizonServer {
@@ -29,49 +35,99 @@ public class HorizonServer {
   private final Server horizonServer;
   private final String serverUrl;
 
-  private Set<String> missingAddresses;
-  private Set<String> knownAddresses;
-
-  private LruCache<String, AccountResponse> addressCache;
-  private long cacheCreationTime;
-  private static final int MAX_ADDRESS_CACHE_SIZE = 1024;
-  private static final int MAX_ADDRESS_CACHE_AGE_MILLIS = 3600000;
+  private final Cache<String, Boolean>         missingAddresses;
+  private final AccountBloomFilter             knownAddresses;
+  private final Cache<String, AccountResponse> addressCache;
 
   public static final int HORIZON_PER_REQUEST_LIMIT = 200;
 
-  // Helper to profile every URL hit by Stellar Java SDK to check how performance can be improved.
-  private class LogInterceptor implements Interceptor {
-    @Override
-    public Response intercept(Interceptor.Chain chain) throws IOException {
-      final Request req = chain.request();
-      final long start = System.currentTimeMillis();
-      final Response resp = chain.proceed(chain.request());
-      LOG.info("request url: {} method: {} duration: {}ms",
-          req.url().toString(), req.method(), (System.currentTimeMillis() - start));
-      return resp;
-    }
-  }
-
   /**
    * Default constructor.
    *
-   * @param serverUrl the url of the server
+   * @param serverUrl        the url of the server
+   * @param serverProperties the server properties
    */
-  public HorizonServer(@Value("${stellar.horizon.server}") String serverUrl) {
+  public HorizonServer(
+      @Value("${stellar.horizon.server}") String serverUrl,
+      HorizonServerProperties             serverProperties
+  ) {
     LOG.info("Horizon server URL {}", serverUrl);
 
     this.serverUrl = serverUrl;
-    this.missingAddresses = new HashSet<>();
-    this.knownAddresses = new HashSet<>();
-    this.addressCache = new LruCache<>(MAX_ADDRESS_CACHE_SIZE);
-    this.cacheCreationTime = System.currentTimeMillis();
+
+    LOG.info(
+        "Configuring account cache with size: {}, time-to-live: {}s, "
+        + "known accounts filter with max-bytes: {}, false-positive-rate: {}, "
+        + "missing accounts cache with size: {}, time-to-live: {}s",
+        serverProperties.getAccountCacheSize(),
+        serverProperties.getAccountCacheTtl().getSeconds(),
+        serverProperties.getKnownAccountsMaxBytes(),
+        serverProperties.getKnownAccountsFalsePositiveRate(),
+        serverProperties.getMissingAccountCacheSize(),
+        serverProperties.getMissingAccountCacheTtl().getSeconds()
+    );
+
+    // Only used to count unique accounts and to skip the cache lookup for accounts never seen
+    // before, a false positive merely costs a cache lookup.
+    this.knownAddresses = new AccountBloomFilter(
+      serverProperties.getKnownAccountsMaxBytes(),
+      serverProperties.getKnownAccountsFalsePositiveRate()
+    );
+
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
+    cacheManager.init();
+
+    // Every account expires on its own, which avoids a storm of misses when all of them would be
+    // dropped at once.
+    this.addressCache = cacheManager.createCache(
+      "accounts",
+      CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(
+          String.class,
+          AccountResponse.class,
+          ResourcePoolsBuilder.heap(serverProperties.getAccountCacheSize())
+        )
+        .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(serverProperties.getAccountCacheTtl()))
+        .add(
+          CacheEventListenerConfigurationBuilder
+            .newEventListenerConfiguration(
+              event -> Metrics.count(
+                event.getType() == EventType.EXPIRED
+                  ? "account.cache.expired"
+                  : "account.cache.eviction",
+                1
+              ),
+              EventType.EVICTED,
+              EventType.EXPIRED
+            )
+            .unordered()
+            .asynchronous()
+        )
+    );
+
+    this.missingAddresses = cacheManager.createCache(
+      "missing-accounts",
+      CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(
+          String.class,
+          Boolean.class,
+          ResourcePoolsBuilder.heap(serverProperties.getMissingAccountCacheSize())
+        )
+        .withExpiry(
+          ExpiryPolicyBuilder.timeToLiveExpiration(serverProperties.getMissingAccountCacheTtl())
+        )
+    );
+
+    // Both clients share the metrics of the requests sent to Horizon, by endpoint family.
+    final HorizonMetricsInterceptor metricsInterceptor = new HorizonMetricsInterceptor();
 
     // Stolen from the regular constructor for Server, but increasing
     // |readTimeout| to 90 and 120 seconds respectively since our
     // Horizon/PostgreSQL setup can be pokey
     final OkHttpClient httpClient = new OkHttpClient.Builder()
         .addInterceptor(new ClientIdentificationInterceptor())
-        //.addInterceptor(new LogInterceptor())
+        .addInterceptor(metricsInterceptor)
+        .addNetworkInterceptor(metricsInterceptor.network())
         .connectTimeout(10, TimeUnit.SECONDS)
         .readTimeout(90, TimeUnit.SECONDS)
         .retryOnConnectionFailure(true)
@@ -79,7 +135,8 @@ public class HorizonServer {
 
     final OkHttpClient submitHttpClient = new OkHttpClient.Builder()
         .addInterceptor(new ClientIdentificationInterceptor())
-        //.addInterceptor(new LogInterceptor())
+        .addInterceptor(metricsInterceptor)
+        .addNetworkInterceptor(metricsInterceptor.network())
         .connectTimeout(10, TimeUnit.SECONDS)
         .readTimeout(120, TimeUnit.SECONDS)
         .retryOnConnectionFailure(true)
@@ -145,47 +202,63 @@ public class HorizonServer {
 
   /**
    * Caching wrapper around fetching details from Horizon about a given Stellar
-   * account. The cache is blown away every 2 hours.
-   * TODO: Blow things away on a key age basis rather than all at once.
+   * account. Every account is kept in the cache for a configurable amount of time.
    *
    * @param accountId The alphanumeric account ID to fetch details for.
    *
-   * @return the url of the server.
+   * @return the details of the account, or null if they could not be fetched.
    */
   public AccountResponse fetchAccountDetails(String accountId) {
-    final long now = System.currentTimeMillis();
-    if (now - this.cacheCreationTime > MAX_ADDRESS_CACHE_AGE_MILLIS) {
-      // Intentionally do not clear this.knownAddresses.
-      this.missingAddresses = new HashSet<>();
-      this.addressCache = new LruCache<>(MAX_ADDRESS_CACHE_SIZE);
-      this.cacheCreationTime = now;
-    }
-
     // We already requested this address and it is not found. Skip the request.
-    if (missingAddresses.contains(accountId)) {
+    if (this.missingAddresses.containsKey(accountId)) {
       return null;
-    } else if (!knownAddresses.contains(accountId)) {
-      knownAddresses.add(accountId);
+    } else if (this.knownAddresses.add(accountId)) {
       Metrics.count("account.unique", 1);
-    } else if (addressCache.containsKey(accountId)) {
-      Metrics.count("account.cache.hit", 1);
-      return addressCache.get(accountId);
+      Metrics.gauge("account.known.size", this.knownAddresses.size());
+      Metrics.gauge("account.known.bytes", this.knownAddresses.sizeInBytes());
+    } else {
+      final AccountResponse cachedResponse = this.addressCache.get(accountId);
+      if (cachedResponse != null) {
+        Metrics.count("account.cache.hit", 1);
+        return cachedResponse;
+      }
     }
 
     Metrics.count("account.cache.miss", 1);
+    return this.requestAccountDetails(accountId);
+  }
+
+  /**
+   * Fetches the current details of a given Stellar account from Horizon, bypassing the account
+   * cache, which is updated with them.
+   *
+   * @param accountId The alphanumeric account ID to fetch details for.
+   *
+   * @return the details of the account, or null if they could not be fetched.
+   */
+  public AccountResponse fetchFreshAccountDetails(String accountId) {
+    if (this.knownAddresses.add(accountId)) {
+      Metrics.count("account.unique", 1);
+    }
+
+    Metrics.count("account.fresh", 1);
+    return this.requestAccountDetails(accountId);
+  }
+
+  private AccountResponse requestAccountDetails(String accountId) {
     try {
       final AccountResponse resp = this.horizonServer()
           .accounts()
           .account(accountId);
 
-      addressCache.put(accountId, resp);
+      this.addressCache.put(accountId, resp);
       return resp;
     } catch (Exception e) {
       if (e instanceof ErrorResponse) {
         ErrorResponse er = (ErrorResponse)e;
         if (er.getCode() == 404) {
           LOG.info("Ignoring not found account ID: {}", accountId);
-          missingAddresses.add(accountId);
+          this.missingAddresses.put(accountId, Boolean.TRUE);
           Metrics.count("account.errors.not_found", 1);
         } else {
           LOG.error("Unable to get details for account ID ({}): {}: {}",
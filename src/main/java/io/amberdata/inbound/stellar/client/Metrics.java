@@ -1,22 +1,46 @@
 package io.amberdata.inbound.stellar.client;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Registry of the ingestion metrics, safe to update from any thread.
+ *
+ * <p>Metrics are registered on their first update. Callers on a hot path should keep the handle
+ * returned by {@link #counter(String)}, {@link #gauge(String)}, {@link #mean(String)} or
+ * {@link #histogram(String)} rather than looking the metric up by key on each update.
+ *
+ * <p>Metrics are periodically logged unless logging is disabled, and are exported to a Micrometer
+ * registry once one is bound.
+ */
 public class Metrics {
   private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
-  private static final Map<String, Double> metrics = new TreeMap<>();
-  private static final Map<String, LinkedList<Double>> samples = new HashMap<>();
-  private static long lastPrint = System.currentTimeMillis();
+
+  private static final ConcurrentMap<String, Counter>   counters   = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Gauge>     gauges     = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Mean>      means      = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+  private static final AtomicLong                       lastPrint  = new AtomicLong(
+      System.currentTimeMillis()
+  );
 
   private static final long PRINT_DELAY_MILLIS = 30 * 1000;
   private static final int MAX_SAMPLE_COUNT = 16;
 
+  private static volatile MeterRegistry registry;
+  private static volatile boolean       logEnabled = true;
+
   /**
    * Adds the value to the metric identified by the metric key.
    *
@@ -24,9 +48,7 @@ public class Metrics {
    * @param value  The value to add to it (or initially set to if non-existent)
    */
   public static void count(String metric, double value) {
-    final double newValue = metrics.getOrDefault(metric, 0.) + 1;
-    metrics.put(metric, newValue);
-    maybeLog();
+    counter(metric).add(value);
   }
 
   /**
@@ -36,8 +58,7 @@ public class Metrics {
    * @param value  The value to set that metric to.
    */
   public static void gauge(String metric, double value) {
-    metrics.put(metric, value);
-    maybeLog();
+    gauge(metric).set(value);
   }
 
   /**
@@ -48,46 +69,242 @@ public class Metrics {
    * @param value  The value to add as a sample for mean calculation.
    */
   public static void mean(String metric, double value) {
-    LinkedList<Double> metricSamples;
+    mean(metric).record(value);
+  }
+
+  /**
+   * Returns the counter identified by the metric key, registering it if needed.
+   *
+   * @param metric The metric key.
+   *
+   * @return the counter.
+   */
+  public static Counter counter(String metric) {
+    Counter counter = counters.get(metric);
+    return counter != null
+      ? counter
+      : counters.computeIfAbsent(metric, key -> export(key, new Counter()));
+  }
+
+  /**
+   * Returns the gauge identified by the metric key, registering it if needed.
+   *
+   * @param metric The metric key.
+   *
+   * @return the gauge.
+   */
+  public static Gauge gauge(String metric) {
+    Gauge gauge = gauges.get(metric);
+    return gauge != null ? gauge : gauges.computeIfAbsent(metric, key -> export(key, new Gauge()));
+  }
+
+  /**
+   * Returns the running mean identified by the metric key, registering it if needed.
+   *
+   * @param metric The metric key.
+   *
+   * @return the running mean.
+   */
+  public static Mean mean(String metric) {
+    Mean mean = means.get(metric);
+    return mean != null ? mean : means.computeIfAbsent(metric, key -> export(key, new Mean()));
+  }
+
+  /**
+   * Returns the latency histogram identified by the metric key, registering it if needed.
+   *
+   * @param metric The metric key.
+   *
+   * @return the latency histogram.
+   */
+  public static Histogram histogram(String metric) {
+    Histogram histogram = histograms.get(metric);
+    return histogram != null
+      ? histogram
+      : histograms.computeIfAbsent(metric, key -> export(key, new Histogram(key)));
+  }
+
+  /**
+   * Returns the current value of all the metrics, by metric key.
+   *
+   * @return the metrics, sorted by key.
+   */
+  public static Map<String, Double> snapshot() {
+    Map<String, Double> metrics = new TreeMap<>();
+
+    counters.forEach((metric, counter) -> metrics.put(metric, counter.value()));
+    gauges.forEach((metric, gauge) -> metrics.put(metric, gauge.value()));
+    means.forEach((metric, mean) -> mean.snapshot(metric, metrics));
+    histograms.forEach((metric, histogram) -> histogram.snapshot(metrics));
+
+    return metrics;
+  }
+
+  /**
+   * Exports all the metrics, registered so far and to come, to the specified registry.
+   *
+   * @param meterRegistry the registry to export the metrics to
+   */
+  public static synchronized void bindTo(MeterRegistry meterRegistry) {
+    registry = meterRegistry;
+
+    counters.forEach(Metrics::export);
+    gauges.forEach(Metrics::export);
+    means.forEach(Metrics::export);
+    histograms.forEach(Metrics::export);
+  }
 
-    if (samples.containsKey(metric)) {
-      metricSamples = samples.get(metric);
-    } else {
-      metricSamples = new LinkedList<>();
+  /**
+   * Enables or disables the periodic logging of the metrics.
+   *
+   * @param enabled true to log the metrics periodically
+   */
+  public static void setLogEnabled(boolean enabled) {
+    logEnabled = enabled;
+  }
+
+  private static Counter export(String metric, Counter counter) {
+    final MeterRegistry meterRegistry = registry;
+    if (meterRegistry != null) {
+      FunctionCounter.builder(metric, counter, Counter::value).register(meterRegistry);
     }
+    return counter;
+  }
 
-    // Keep a lookback of only MAX_SAMPLE_COUNT samples.
-    metricSamples.add(value);
-    if (metricSamples.size() > MAX_SAMPLE_COUNT) {
-      metricSamples.removeFirst();
+  private static Gauge export(String metric, Gauge gauge) {
+    final MeterRegistry meterRegistry = registry;
+    if (meterRegistry != null) {
+      io.micrometer.core.instrument.Gauge
+        .builder(metric, gauge, Gauge::value)
+        .register(meterRegistry);
     }
-    samples.put(metric, metricSamples);
+    return gauge;
+  }
 
-    // Calculate mean, min, max over all samples.
-    double sum = 0;
-    Double max = null;
-    Double min = null;
+  private static Mean export(String metric, Mean mean) {
+    final MeterRegistry meterRegistry = registry;
+    if (meterRegistry != null) {
+      io.micrometer.core.instrument.Gauge
+        .builder(metric + ".mean", mean, Mean::value)
+        .register(meterRegistry);
+    }
+    return mean;
+  }
 
-    for (double i : metricSamples) {
-      sum += i;
-      if (max == null || i > max) {
-        max = i;
-      }
-      if (min == null || i < min) {
-        min = i;
+  private static Histogram export(String metric, Histogram histogram) {
+    final MeterRegistry meterRegistry = registry;
+    if (meterRegistry != null) {
+      for (double percentile : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+        io.micrometer.core.instrument.Gauge
+          .builder(metric, histogram, h -> h.percentile(percentile))
+          .tag("quantile", String.valueOf(percentile))
+          .baseUnit("milliseconds")
+          .register(meterRegistry);
       }
+      io.micrometer.core.instrument.Gauge
+        .builder(metric + ".max", histogram, Histogram::max)
+        .baseUnit("milliseconds")
+        .register(meterRegistry);
+      io.micrometer.core.instrument.Gauge
+        .builder(metric + ".count", histogram, Histogram::count)
+        .register(meterRegistry);
     }
+    return histogram;
+  }
 
-    gauge(metric + ".mean", sum / metricSamples.size());
-    gauge(metric + ".min", min);
-    gauge(metric + ".max", max);
+  static void maybeLog() {
+    if (!logEnabled) {
+      return;
+    }
+
+    final long now  = System.currentTimeMillis();
+    final long last = lastPrint.get();
+    if (now - last > PRINT_DELAY_MILLIS && lastPrint.compareAndSet(last, now)) {
+      LOG.info("[METRICS] " + snapshot());
+    }
   }
 
-  private static void maybeLog() {
-    final long now = System.currentTimeMillis();
-    if (now - lastPrint > PRINT_DELAY_MILLIS) {
-      LOG.info("[METRICS] " + metrics);
-      lastPrint = now;
+  /**
+   * Metric accumulating values.
+   */
+  public static class Counter {
+    private final DoubleAdder adder = new DoubleAdder();
+
+    public void add(double value) {
+      this.adder.add(value);
+      maybeLog();
+    }
+
+    public double value() {
+      return this.adder.sum();
+    }
+  }
+
+  /**
+   * Metric holding the last value set.
+   */
+  public static class Gauge {
+    private volatile double value;
+
+    public void set(double value) {
+      this.value = value;
+      maybeLog();
+    }
+
+    public double value() {
+      return this.value;
+    }
+  }
+
+  /**
+   * Metric keeping the last samples recorded, reported as their mean, min and max.
+   */
+  public static class Mean {
+    private final AtomicLongArray samples  = new AtomicLongArray(MAX_SAMPLE_COUNT);
+    private final AtomicLong      recorded = new AtomicLong();
+
+    /**
+     * Records a sample, replacing the oldest one once {@value Metrics#MAX_SAMPLE_COUNT} are kept.
+     *
+     * @param value the sample
+     */
+    public void record(double value) {
+      final long index = this.recorded.getAndIncrement();
+      this.samples.set((int) (index % MAX_SAMPLE_COUNT), Double.doubleToRawLongBits(value));
+      maybeLog();
+    }
+
+    double value() {
+      final int count = (int) Math.min(this.recorded.get(), MAX_SAMPLE_COUNT);
+
+      double sum = 0;
+      for (int i = 0; i < count; i++) {
+        sum += Double.longBitsToDouble(this.samples.get(i));
+      }
+
+      return count == 0 ? 0 : sum / count;
+    }
+
+    private void snapshot(String metric, Map<String, Double> metrics) {
+      final int count = (int) Math.min(this.recorded.get(), MAX_SAMPLE_COUNT);
+      if (count == 0) {
+        return;
+      }
+
+      double sum = 0;
+      double max = Double.NEGATIVE_INFINITY;
+      double min = Double.POSITIVE_INFINITY;
+
+      for (int i = 0; i < count; i++) {
+        final double sample = Double.longBitsToDouble(this.samples.get(i));
+        sum += sample;
+        max = Math.max(max, sample);
+        min = Math.min(min, sample);
+      }
+
+      metrics.put(metric + ".mean", sum / count);
+      metrics.put(metric + ".min", min);
+      metrics.put(metric + ".max", max);
     }
   }
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.amberdata.inbound.core.configuration.InboundApiProperties;
 import io.amberdata.inbound.stellar.client.HorizonServer;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +35,8 @@ public class HistoricalManager {
   private final Server  horizonServer;
   private final Long    ledgerSequenceNumberStart;
   private final Long    ledgerSequenceNumberEnd;
+  private final int     backfillWorkers;
+  private final long    backfillShardSize;
 
   private String lastLedgerToken;
   private String lastTransactionToken;
@@ -43,12 +46,16 @@ public class HistoricalManager {
    *
    * @param ledgerSequenceNumberStart the ledger number to start the historical manager from
    * @param ledgerSequenceNumberEnd   the ledger number to end   the historical manager on
+   * @param backfillWorkers           the number of shards backfilled concurrently
+   * @param backfillShardSize         the number of ledgers of a backfill shard
    * @param horizonServer             the Horizon server
    * @param apiProperties             the API properties
    */
   public HistoricalManager(
       @Value("${stellar.state.start-all-from-ledger}") Long ledgerSequenceNumberStart,
       @Value("${stellar.state.end-all-from-ledger}")   Long ledgerSequenceNumberEnd,
+      @Value("${stellar.state.backfill-workers}")      int  backfillWorkers,
+      @Value("${stellar.state.backfill-shard-size}")   long backfillShardSize,
       HorizonServer        horizonServer,
       InboundApiProperties apiProperties
   ) {
@@ -60,6 +67,8 @@ public class HistoricalManager {
       this.ledgerSequenceNumberStart = this.getLedgerSequenceNumber(apiProperties);
     }
     this.ledgerSequenceNumberEnd = ledgerSequenceNumberEnd;
+    this.backfillWorkers         = backfillWorkers;
+    this.backfillShardSize       = Math.max(1L, backfillShardSize);
 
     this.horizonServer = horizonServer.horizonServer();
   }
@@ -77,6 +86,45 @@ public class HistoricalManager {
     return this.ledgerSequenceNumberEnd;
   }
 
+  /**
+   * Returns true if the historical range is backfilled by shards rather than streamed.
+   *
+   * @return True if the historical range is backfilled by shards.
+   */
+  public boolean backfillEnabled() {
+    return this.isActive
+      && this.backfillWorkers > 0
+      && this.ledgerSequenceNumberEnd != null
+      && this.ledgerSequenceNumberEnd >= this.ledgerSequenceNumberStart;
+  }
+
+  public int getBackfillWorkers() {
+    return this.backfillWorkers;
+  }
+
+  /**
+   * Splits the historical range into shards to backfill.
+   *
+   * @return the shards covering the historical range, in ascending order.
+   */
+  public List<LedgerShard> backfillShards() {
+    this.ensureIsActive();
+
+    List<LedgerShard> shards = new ArrayList<>();
+    for (long start = this.ledgerSequenceNumberStart;
+         start <= this.ledgerSequenceNumberEnd;
+         start += this.backfillShardSize) {
+      shards.add(
+          new LedgerShard(
+            start,
+            Math.min(this.ledgerSequenceNumberEnd, start + this.backfillShardSize - 1)
+          )
+      );
+    }
+
+    return shards;
+  }
+
   /**
    * Returns the token to paginate ledgers.
    *
@@ -0,0 +1,91 @@
+package io.amberdata.inbound.stellar.configuration.history;
+
+import io.amberdata.inbound.domain.Block;
+
+import java.util.Objects;
+
+/**
+ * Range of ledgers backfilled by a single worker, with its own checkpoint.
+ *
+ * <p>The checkpoint of a shard is stored under its own state name rather than under the state of
+ * the sequential backfill, which it neither reads nor updates. Enabling shards on a historical
+ * range partly backfilled sequentially therefore starts every shard from its first ledger, and
+ * disabling them resumes the sequential backfill from where it stopped.
+ *
+ * <p>The state name also depends on the end of the shard, hence on the shard size: a backfill
+ * only resumes from its checkpoints when restarted with the same shard size.
+ */
+public class LedgerShard {
+
+  private final long start;
+  private final long end;
+
+  /**
+   * Default constructor.
+   *
+   * @param start the first ledger of the shard
+   * @param end   the last ledger of the shard, inclusive
+   */
+  public LedgerShard(long start, long end) {
+    this.start = start;
+    this.end   = end;
+  }
+
+  public long getStart() {
+    return this.start;
+  }
+
+  public long getEnd() {
+    return this.end;
+  }
+
+  /**
+   * Returns the name of the state holding the progress of the shard. It is made of the range of
+   * the shard, so it changes along with the shard size.
+   *
+   * @return the name of the state of the shard.
+   */
+  public String getStateName() {
+    return Block.class.getSimpleName() + "-shard-" + this.start + "-" + this.end;
+  }
+
+  /**
+   * Returns the paging token to start the shard from when it has no progress yet.
+   *
+   * @return the paging token preceding the first ledger of the shard.
+   */
+  public String getInitialPagingToken() {
+    // Ledger paging tokens are their sequence number shifted by 32 bits, and cursors are
+    // exclusive: start right after the previous ledger.
+    return String.valueOf((this.start - 1) << 32);
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (this == object) {
+      return true;
+    }
+
+    if (object == null || this.getClass() != object.getClass()) {
+      return false;
+    }
+
+    LedgerShard that = (LedgerShard) object;
+    return this.start == that.start && this.end == that.end;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.start, this.end);
+  }
+
+  @Override
+  public String toString() {
+    return
+      "LedgerShard{"
+      + "start=" + this.start
+      + ", end=" + this.end
+      + '}';
+  }
+
+}
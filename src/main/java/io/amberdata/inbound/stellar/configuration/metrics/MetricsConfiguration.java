@@ -0,0 +1,27 @@
+package io.amberdata.inbound.stellar.configuration.metrics;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfiguration {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsConfiguration.class);
+
+  /**
+   * Default constructor.
+   *
+   * @param logEnabled true to log the metrics periodically
+   */
+  public MetricsConfiguration(@Value("${stellar.metrics.log-enabled}") boolean logEnabled) {
+    LOG.info("Configuring metrics with log-enabled: {}", logEnabled);
+
+    Metrics.setLogEnabled(logEnabled);
+  }
+
+}
@@ -0,0 +1,84 @@
+package io.amberdata.inbound.stellar.configuration.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Exports the ingestion metrics in the Prometheus format.
+ *
+ * <p>The application does not run a web server, the metrics are scraped from a lightweight HTTP
+ * server serving them on {@code /metrics}.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "stellar.metrics.prometheus", name = "enabled")
+public class PrometheusConfiguration {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PrometheusConfiguration.class);
+
+  private final PrometheusMeterRegistry registry;
+  private final HttpServer              server;
+
+  /**
+   * Default constructor.
+   *
+   * @param port the port to serve the metrics on
+   *
+   * @throws IOException if the HTTP server could not be started
+   */
+  public PrometheusConfiguration(
+      @Value("${stellar.metrics.prometheus.port}") int port
+  ) throws IOException {
+    LOG.info("Serving Prometheus metrics on port {}", port);
+
+    this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    Metrics.bindTo(this.registry);
+
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metrics-http-thread-");
+    threadFactory.setDaemon(true);
+
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.createContext("/metrics", this::scrape);
+    this.server.setExecutor(Executors.newSingleThreadExecutor(threadFactory));
+    this.server.start();
+  }
+
+  @PreDestroy
+  public void stop() {
+    this.server.stop(0);
+  }
+
+  private void scrape(HttpExchange exchange) throws IOException {
+    final byte[] body = this.registry.scrape().getBytes(StandardCharsets.UTF_8);
+
+    exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+    exchange.sendResponseHeaders(200, body.length);
+
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(body);
+    }
+  }
+
+}
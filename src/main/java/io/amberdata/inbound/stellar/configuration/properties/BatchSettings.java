@@ -1,6 +1,10 @@
 package io.amberdata.inbound.stellar.configuration.properties;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
@@ -14,12 +18,28 @@ public class BatchSettings {
   private String ordersInChunk;
   private String tradesInChunk;
 
+  private Boolean adaptive;
+  private Integer minInChunk;
+  private Integer maxInChunk;
+
+  @DurationUnit(ChronoUnit.MILLIS)
+  private Duration targetPublishLatency;
+
+  // Chunk sizes are read on every batch, they are parsed once.
+  private volatile Integer blocksInChunkValue;
+  private volatile Integer transactionsInChunkValue;
+  private volatile Integer addressesInChunkValue;
+  private volatile Integer assetsInChunkValue;
+  private volatile Integer ordersInChunkValue;
+  private volatile Integer tradesInChunkValue;
+
   public String getBlocksInChunk() {
     return this.blocksInChunk;
   }
 
   public void setBlocksInChunk(String blocksInChunk) {
-    this.blocksInChunk = blocksInChunk;
+    this.blocksInChunk      = blocksInChunk;
+    this.blocksInChunkValue = null;
   }
 
   public String getTransactionsInChunk() {
@@ -27,7 +47,8 @@ public class BatchSettings {
   }
 
   public void setTransactionsInChunk(String transactionsInChunk) {
-    this.transactionsInChunk = transactionsInChunk;
+    this.transactionsInChunk      = transactionsInChunk;
+    this.transactionsInChunkValue = null;
   }
 
   public String getAddressesInChunk() {
@@ -35,7 +56,8 @@ public class BatchSettings {
   }
 
   public void setAddressesInChunk(String addressesInChunk) {
-    this.addressesInChunk = addressesInChunk;
+    this.addressesInChunk      = addressesInChunk;
+    this.addressesInChunkValue = null;
   }
 
   public String getAssetsInChunk() {
@@ -43,7 +65,8 @@ public class BatchSettings {
   }
 
   public void setAssetsInChunk(String assetsInChunk) {
-    this.assetsInChunk = assetsInChunk;
+    this.assetsInChunk      = assetsInChunk;
+    this.assetsInChunkValue = null;
   }
 
   public String getOrdersInChunk() {
@@ -51,7 +74,8 @@ public class BatchSettings {
   }
 
   public void setOrdersInChunk(String ordersInChunk) {
-    this.ordersInChunk = ordersInChunk;
+    this.ordersInChunk      = ordersInChunk;
+    this.ordersInChunkValue = null;
   }
 
   public String getTradesInChunk() {
@@ -59,31 +83,94 @@ public class BatchSettings {
   }
 
   public void setTradesInChunk(String tradesInChunk) {
-    this.tradesInChunk = tradesInChunk;
+    this.tradesInChunk      = tradesInChunk;
+    this.tradesInChunkValue = null;
   }
 
   public int blocksInChunk() {
-    return Integer.parseInt(getBlocksInChunk());
+    Integer value = this.blocksInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getBlocksInChunk());
+      this.blocksInChunkValue = value;
+    }
+    return value;
   }
 
   public int transactionsInChunk() {
-    return Integer.parseInt(getTransactionsInChunk());
+    Integer value = this.transactionsInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getTransactionsInChunk());
+      this.transactionsInChunkValue = value;
+    }
+    return value;
   }
 
   public int addressesInChunk() {
-    return Integer.parseInt(getAddressesInChunk());
+    Integer value = this.addressesInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getAddressesInChunk());
+      this.addressesInChunkValue = value;
+    }
+    return value;
   }
 
   public int assetsInChunk() {
-    return Integer.parseInt(getAssetsInChunk());
+    Integer value = this.assetsInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getAssetsInChunk());
+      this.assetsInChunkValue = value;
+    }
+    return value;
   }
 
   public int ordersInChunk() {
-    return Integer.parseInt(getOrdersInChunk());
+    Integer value = this.ordersInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getOrdersInChunk());
+      this.ordersInChunkValue = value;
+    }
+    return value;
   }
 
   public int tradesInChunk() {
-    return Integer.parseInt(getTradesInChunk());
+    Integer value = this.tradesInChunkValue;
+    if (value == null) {
+      value = Integer.parseInt(getTradesInChunk());
+      this.tradesInChunkValue = value;
+    }
+    return value;
+  }
+
+  public Boolean getAdaptive() {
+    return this.adaptive;
+  }
+
+  public void setAdaptive(Boolean adaptive) {
+    this.adaptive = adaptive;
+  }
+
+  public Integer getMinInChunk() {
+    return this.minInChunk;
+  }
+
+  public void setMinInChunk(Integer minInChunk) {
+    this.minInChunk = minInChunk;
+  }
+
+  public Integer getMaxInChunk() {
+    return this.maxInChunk;
+  }
+
+  public void setMaxInChunk(Integer maxInChunk) {
+    this.maxInChunk = maxInChunk;
+  }
+
+  public Duration getTargetPublishLatency() {
+    return this.targetPublishLatency;
+  }
+
+  public void setTargetPublishLatency(Duration targetPublishLatency) {
+    this.targetPublishLatency = targetPublishLatency;
   }
 
   @Override
@@ -96,6 +183,10 @@ public class BatchSettings {
         + ", assetsInChunk='" + assetsInChunk + '\''
         + ", ordersInChunk='" + ordersInChunk + '\''
         + ", tradesInChunk='" + tradesInChunk + '\''
+        + ", adaptive=" + adaptive
+        + ", minInChunk=" + minInChunk
+        + ", maxInChunk=" + maxInChunk
+        + ", targetPublishLatency=" + targetPublishLatency
         + '}';
   }
 
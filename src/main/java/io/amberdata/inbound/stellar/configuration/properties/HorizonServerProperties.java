@@ -22,6 +22,31 @@ public class HorizonServerProperties {
 
   private Double idleTimeoutMultiplier;
 
+  private Integer accountCacheSize;
+
+  @DurationUnit(ChronoUnit.SECONDS)
+  private Duration accountCacheTtl;
+
+  private Long   knownAccountsMaxBytes;
+  private Double knownAccountsFalsePositiveRate;
+
+  private Integer missingAccountCacheSize;
+
+  @DurationUnit(ChronoUnit.SECONDS)
+  private Duration missingAccountCacheTtl;
+
+  private Integer accountLoaderThreads;
+
+  private Integer ledgerOperationsCacheSize;
+
+  @DurationUnit(ChronoUnit.SECONDS)
+  private Duration ledgerOperationsCacheTtl;
+
+  private Integer ledgerEffectsCacheSize;
+
+  @DurationUnit(ChronoUnit.SECONDS)
+  private Duration ledgerEffectsCacheTtl;
+
   public String getServer() {
     return this.server;
   }
@@ -62,5 +87,92 @@ public class HorizonServerProperties {
     this.idleTimeoutMultiplier = idleTimeoutMultiplier;
   }
 
-}
+  public Integer getAccountCacheSize() {
+    return this.accountCacheSize;
+  }
+
+  public void setAccountCacheSize(Integer accountCacheSize) {
+    this.accountCacheSize = accountCacheSize;
+  }
+
+  public Duration getAccountCacheTtl() {
+    return this.accountCacheTtl;
+  }
+
+  public void setAccountCacheTtl(Duration accountCacheTtl) {
+    this.accountCacheTtl = accountCacheTtl;
+  }
+
+  public Long getKnownAccountsMaxBytes() {
+    return this.knownAccountsMaxBytes;
+  }
+
+  public void setKnownAccountsMaxBytes(Long knownAccountsMaxBytes) {
+    this.knownAccountsMaxBytes = knownAccountsMaxBytes;
+  }
+
+  public Double getKnownAccountsFalsePositiveRate() {
+    return this.knownAccountsFalsePositiveRate;
+  }
+
+  public void setKnownAccountsFalsePositiveRate(Double knownAccountsFalsePositiveRate) {
+    this.knownAccountsFalsePositiveRate = knownAccountsFalsePositiveRate;
+  }
+
+  public Integer getMissingAccountCacheSize() {
+    return this.missingAccountCacheSize;
+  }
 
+  public void setMissingAccountCacheSize(Integer missingAccountCacheSize) {
+    this.missingAccountCacheSize = missingAccountCacheSize;
+  }
+
+  public Duration getMissingAccountCacheTtl() {
+    return this.missingAccountCacheTtl;
+  }
+
+  public void setMissingAccountCacheTtl(Duration missingAccountCacheTtl) {
+    this.missingAccountCacheTtl = missingAccountCacheTtl;
+  }
+
+  public Integer getAccountLoaderThreads() {
+    return this.accountLoaderThreads;
+  }
+
+  public void setAccountLoaderThreads(Integer accountLoaderThreads) {
+    this.accountLoaderThreads = accountLoaderThreads;
+  }
+
+  public Integer getLedgerOperationsCacheSize() {
+    return this.ledgerOperationsCacheSize;
+  }
+
+  public void setLedgerOperationsCacheSize(Integer ledgerOperationsCacheSize) {
+    this.ledgerOperationsCacheSize = ledgerOperationsCacheSize;
+  }
+
+  public Duration getLedgerOperationsCacheTtl() {
+    return this.ledgerOperationsCacheTtl;
+  }
+
+  public void setLedgerOperationsCacheTtl(Duration ledgerOperationsCacheTtl) {
+    this.ledgerOperationsCacheTtl = ledgerOperationsCacheTtl;
+  }
+
+  public Integer getLedgerEffectsCacheSize() {
+    return this.ledgerEffectsCacheSize;
+  }
+
+  public void setLedgerEffectsCacheSize(Integer ledgerEffectsCacheSize) {
+    this.ledgerEffectsCacheSize = ledgerEffectsCacheSize;
+  }
+
+  public Duration getLedgerEffectsCacheTtl() {
+    return this.ledgerEffectsCacheTtl;
+  }
+
+  public void setLedgerEffectsCacheTtl(Duration ledgerEffectsCacheTtl) {
+    this.ledgerEffectsCacheTtl = ledgerEffectsCacheTtl;
+  }
+
+}
@@ -0,0 +1,144 @@
+package io.amberdata.inbound.stellar.configuration.properties;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties("stellar.pipeline")
+public class PipelineSettings {
+
+  private Integer ioThreads;
+  private Integer cpuThreads;
+  private Integer ledgersInFlight;
+  private Integer accountsConcurrency;
+  private Integer streamBufferSize;
+  private Integer streamQueueSize;
+  private Boolean operationsPerLedger;
+  private Integer catchUpLagThreshold;
+  private Integer publishThreads;
+  private Integer publishQueueSize;
+  private Long    coalesceMaxBytes;
+
+  @DurationUnit(ChronoUnit.MILLIS)
+  private Duration coalesceMaxLatency;
+
+  public Integer getIoThreads() {
+    return this.ioThreads;
+  }
+
+  public void setIoThreads(Integer ioThreads) {
+    this.ioThreads = ioThreads;
+  }
+
+  public Integer getCpuThreads() {
+    return this.cpuThreads;
+  }
+
+  public void setCpuThreads(Integer cpuThreads) {
+    this.cpuThreads = cpuThreads;
+  }
+
+  public Integer getLedgersInFlight() {
+    return this.ledgersInFlight;
+  }
+
+  public void setLedgersInFlight(Integer ledgersInFlight) {
+    this.ledgersInFlight = ledgersInFlight;
+  }
+
+  public Integer getAccountsConcurrency() {
+    return this.accountsConcurrency;
+  }
+
+  public void setAccountsConcurrency(Integer accountsConcurrency) {
+    this.accountsConcurrency = accountsConcurrency;
+  }
+
+  public Integer getStreamBufferSize() {
+    return this.streamBufferSize;
+  }
+
+  public void setStreamBufferSize(Integer streamBufferSize) {
+    this.streamBufferSize = streamBufferSize;
+  }
+
+  public Integer getStreamQueueSize() {
+    return this.streamQueueSize;
+  }
+
+  public void setStreamQueueSize(Integer streamQueueSize) {
+    this.streamQueueSize = streamQueueSize;
+  }
+
+  public Boolean getOperationsPerLedger() {
+    return this.operationsPerLedger;
+  }
+
+  public void setOperationsPerLedger(Boolean operationsPerLedger) {
+    this.operationsPerLedger = operationsPerLedger;
+  }
+
+  public Integer getCatchUpLagThreshold() {
+    return this.catchUpLagThreshold;
+  }
+
+  public void setCatchUpLagThreshold(Integer catchUpLagThreshold) {
+    this.catchUpLagThreshold = catchUpLagThreshold;
+  }
+
+  public Integer getPublishThreads() {
+    return this.publishThreads;
+  }
+
+  public void setPublishThreads(Integer publishThreads) {
+    this.publishThreads = publishThreads;
+  }
+
+  public Integer getPublishQueueSize() {
+    return this.publishQueueSize;
+  }
+
+  public void setPublishQueueSize(Integer publishQueueSize) {
+    this.publishQueueSize = publishQueueSize;
+  }
+
+  public Long getCoalesceMaxBytes() {
+    return this.coalesceMaxBytes;
+  }
+
+  public void setCoalesceMaxBytes(Long coalesceMaxBytes) {
+    this.coalesceMaxBytes = coalesceMaxBytes;
+  }
+
+  public Duration getCoalesceMaxLatency() {
+    return this.coalesceMaxLatency;
+  }
+
+  public void setCoalesceMaxLatency(Duration coalesceMaxLatency) {
+    this.coalesceMaxLatency = coalesceMaxLatency;
+  }
+
+  @Override
+  public String toString() {
+    return
+        "PipelineSettings{"
+        + "ioThreads=" + ioThreads
+        + ", cpuThreads=" + cpuThreads
+        + ", ledgersInFlight=" + ledgersInFlight
+        + ", accountsConcurrency=" + accountsConcurrency
+        + ", streamBufferSize=" + streamBufferSize
+        + ", streamQueueSize=" + streamQueueSize
+        + ", operationsPerLedger=" + operationsPerLedger
+        + ", catchUpLagThreshold=" + catchUpLagThreshold
+        + ", publishThreads=" + publishThreads
+        + ", publishQueueSize=" + publishQueueSize
+        + ", coalesceMaxBytes=" + coalesceMaxBytes
+        + ", coalesceMaxLatency=" + coalesceMaxLatency
+        + '}';
+  }
+
+}
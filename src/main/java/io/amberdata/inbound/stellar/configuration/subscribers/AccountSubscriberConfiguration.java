@@ -4,7 +4,7 @@ import io.amberdata.inbound.core.client.BlockchainEntityWithState;
 import io.amberdata.inbound.core.client.InboundApiClient;
 import io.amberdata.inbound.core.state.ResourceStateStorage;
 import io.amberdata.inbound.domain.Address;
-import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.AccountLoader;
 import io.amberdata.inbound.stellar.configuration.history.HistoricalManager;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
@@ -13,7 +13,6 @@ import java.io.IOException;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
@@ -25,15 +24,11 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 
 import org.stellar.sdk.FormatException;
-import org.stellar.sdk.requests.EventListener;
 import org.stellar.sdk.responses.AccountResponse;
 import org.stellar.sdk.responses.TransactionResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
-import shadow.com.google.common.base.Optional;
 
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-accounts")
@@ -45,9 +40,12 @@ public class AccountSubscriberConfiguration {
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
   private final HistoricalManager       historicalManager;
-  private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final AccountLoader           accountLoader;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -56,26 +54,41 @@ public class AccountSubscriberConfiguration {
    * @param apiClient         the client api
    * @param modelMapper       the model mapper
    * @param historicalManager the historical manager
-   * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param accountLoader     the account loader
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public AccountSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
       InboundApiClient        apiClient,
       ModelMapper             modelMapper,
       HistoricalManager       historicalManager,
-      HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      AccountLoader           accountLoader,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
     this.modelMapper       = modelMapper;
     this.historicalManager = historicalManager;
-    this.server            = server;
-    this.batchSettings     = batchSettings;
+    this.batchSize         = adaptiveBatching.forPipeline(
+      "addresses",
+      batchSettings.addressesInChunk(),
+      "transactions.accounts"
+    );
     this.errorsHandler     = errorsHandler;
+    this.accountLoader     = accountLoader;
+    this.sharedStreams     = sharedStreams;
+    this.operationsCache   = operationsCache;
+    this.schedulers        = schedulers;
   }
 
   /**
@@ -85,21 +98,19 @@ public class AccountSubscriberConfiguration {
   public void createPipeline() {
     LOG.info("Going to subscribe on Stellar Accounts stream through Transactions stream");
 
-    Flux
-        .<TransactionResponse>create(
-          sink -> subscribe(
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
-        )
-        .publishOn(Schedulers.newElastic("addresses-subscriber-thread"))
+    this.sharedStreams.transactions()
+        .register("accounts", this::getCursorPointer)
+        .publishOn(this.schedulers.io())
         .timeout(this.errorsHandler.timeoutDuration())
         .map(this::toAddressesStream)
         .flatMap(Flux::fromStream)
-        .buffer(this.batchSettings.addressesInChunk())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/addresses", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/addresses", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
@@ -115,7 +126,9 @@ public class AccountSubscriberConfiguration {
       List<OperationResponse> operationResponses,
       TransactionResponse     transactionResponse
   ) {
-    return this.modelMapper.mapOperations(operationResponses, null, null)
+    // Effects are not reported with accounts, do not fetch them.
+    return this.modelMapper
+      .mapOperations(operationResponses, Collections.emptyMap(), transactionResponse.getLedger())
       .stream()
       .flatMap(
         functionCall -> {
@@ -150,34 +163,6 @@ public class AccountSubscriberConfiguration {
       .distinct();
   }
 
-  private void subscribe(Consumer<TransactionResponse> responseConsumer,
-                         Consumer<? super Throwable>   errorConsumer) {
-    String cursorPointer = this.getCursorPointer();
-
-    LOG.info("Subscribing to addresses using transactions cursor {}", cursorPointer);
-
-    this.server.testConnection();
-    this.testCursorCorrectness(cursorPointer);
-
-    this.server.horizonServer()
-        .transactions()
-        .cursor(cursorPointer)
-        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-        .stream(new EventListener<TransactionResponse>() {
-          @Override
-          public void onEvent(TransactionResponse transactionResponse) {
-            responseConsumer.accept(transactionResponse);
-          }
-
-          @Override
-          public void onFailure(Optional<Throwable> optional, Optional<Integer> optional1) {
-            if (optional.isPresent()) {
-              errorConsumer.accept(optional.get());
-            }
-          }
-        });
-  }
-
   private String getCursorPointer() {
     if (this.historicalManager.disabled()) {
       return this.stateStorage.getStateToken(Address.class.getSimpleName(), () -> "now");
@@ -190,15 +175,7 @@ public class AccountSubscriberConfiguration {
       TransactionResponse transactionResponse
   ) {
     try {
-      return StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .operations()
-          .forTransaction(transactionResponse.getHash())
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-        "transaction.operations"
-      );
+      return this.operationsCache.forTransaction(transactionResponse);
     } catch (IOException | FormatException e) {
       LOG.error(
           "Unable to fetch information about operations for transaction "
@@ -210,25 +187,8 @@ public class AccountSubscriberConfiguration {
   }
 
   private AccountResponse fetchAccountDetails(String accountId) {
-    try {
-      return this.server.horizonServer()
-        .accounts()
-        .account(accountId);
-    } catch (Exception e) {
-      LOG.error("Unable to get details for account " + accountId, e);
-      return null;
-    }
-  }
-
-  private void testCursorCorrectness(String cursorPointer) {
-    try {
-      this.server.horizonServer().transactions().cursor(cursorPointer).limit(1).execute();
-    } catch (IOException ioe) {
-      throw new HorizonServer.IncorrectRequestException(
-        "Failed to test if cursor value is valid",
-        ioe
-      );
-    }
+    // The pipeline reports current balances, they are not served from the account cache.
+    return this.accountLoader.loadFreshBlocking(accountId);
   }
 
 }
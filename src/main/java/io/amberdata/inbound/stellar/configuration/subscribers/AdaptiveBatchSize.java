@@ -0,0 +1,160 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import java.time.Duration;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Size of the batches of a pipeline, adjusted at runtime.
+ *
+ * <p>While the pipeline catches up, batches grow as long as publishing them is faster than the
+ * target latency and slower than fetching them, so that fewer and larger requests are sent. They
+ * shrink as soon as publishing gets slower than the target. Once the pipeline is near the tip,
+ * batches shrink back to their configured size, and are closed as soon as they reach it even
+ * before they shrank, so that records are not held back waiting for a large batch to fill.
+ */
+public class AdaptiveBatchSize {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+  private final String        name;
+  private final int           initial;
+  private final int           min;
+  private final int           max;
+  private final long          targetLatency;
+  private final Metrics.Gauge lag;
+  private final int           lagThreshold;
+  private final AtomicInteger size;
+  private final Metrics.Gauge sizeGauge;
+
+  private volatile long fillTime;
+  private volatile long lastFlush;
+
+  /**
+   * Default constructor.
+   *
+   * @param name          the name of the pipeline
+   * @param initial       the initial batch size
+   * @param min           the minimum batch size
+   * @param max           the maximum batch size
+   * @param targetLatency the target duration of the publication of a batch
+   * @param lag           the gauge of the number of ledgers behind the tip
+   * @param lagThreshold  the number of ledgers behind the tip below which the pipeline is near it
+   */
+  public AdaptiveBatchSize(
+      String        name,
+      int           initial,
+      int           min,
+      int           max,
+      Duration      targetLatency,
+      Metrics.Gauge lag,
+      int           lagThreshold
+  ) {
+    this.name          = name;
+    this.min           = Math.max(1, min);
+    this.max           = Math.max(this.min, max);
+    this.initial       = Math.min(this.max, Math.max(this.min, initial));
+    this.targetLatency = targetLatency.toNanos();
+    this.lag           = lag;
+    this.lagThreshold  = lagThreshold;
+    this.size          = new AtomicInteger(this.initial);
+    this.sizeGauge     = Metrics.gauge(name + ".batch.size");
+    this.lastFlush     = System.nanoTime();
+
+    this.sizeGauge.set(this.size.get());
+  }
+
+  /**
+   * Returns the current batch size.
+   *
+   * @return the current batch size.
+   */
+  public int get() {
+    return this.size.get();
+  }
+
+  /**
+   * Splits the records into batches of the current size.
+   *
+   * @param records the records
+   * @param <T>     the type of the records
+   *
+   * @return the batches of records.
+   */
+  public <T> Flux<List<T>> buffer(Flux<T> records) {
+    return Flux.defer(
+      () -> {
+        final int[] count = { 0 };
+        return records.bufferUntil(
+          record -> {
+            count[0]++;
+            if (count[0] < this.size.get() && !(count[0] >= this.initial && this.nearTip())) {
+              return false;
+            }
+
+            final long now = System.nanoTime();
+            this.fillTime  = now - this.lastFlush;
+            this.lastFlush = now;
+            count[0]       = 0;
+            return true;
+          }
+        );
+      }
+    );
+  }
+
+  /**
+   * Wraps the publication of the batches to adjust the batch size to its duration.
+   *
+   * @param publisher the function publishing a batch
+   * @param <T>       the type of the records
+   *
+   * @return the function publishing a batch and adjusting the batch size.
+   */
+  public <T> Consumer<List<T>> publisher(Consumer<List<T>> publisher) {
+    return batch -> {
+      final long start = System.nanoTime();
+      publisher.accept(batch);
+      this.adjust(System.nanoTime() - start);
+    };
+  }
+
+  /**
+   * Adjusts the batch size to the duration of the publication of the last batch.
+   *
+   * @param publishTime the duration of the publication of the last batch, in nanoseconds
+   */
+  /* package */ void adjust(long publishTime) {
+    final int current = this.size.get();
+
+    int next;
+    if (publishTime > this.targetLatency) {
+      next = Math.max(this.min, current * 3 / 4);
+    } else if (this.nearTip()) {
+      next = current > this.initial ? Math.max(this.initial, current / 2) : current;
+    } else if (publishTime >= this.fillTime) {
+      next = Math.min(this.max, current + Math.max(1, current / 4));
+    } else {
+      next = current;
+    }
+
+    if (next != current && this.size.compareAndSet(current, next)) {
+      LOG.debug("Batch size of {} changed from {} to {}", this.name, current, next);
+      this.sizeGauge.set(next);
+    }
+  }
+
+  private boolean nearTip() {
+    return this.lag.value() < this.lagThreshold;
+  }
+
+}
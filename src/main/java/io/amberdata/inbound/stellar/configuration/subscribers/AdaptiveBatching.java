@@ -0,0 +1,68 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates the adaptive batch sizes of the pipelines.
+ */
+@Component
+public class AdaptiveBatching {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatching.class);
+
+  private final BatchSettings    batchSettings;
+  private final PipelineSettings pipelineSettings;
+
+  /**
+   * Default constructor.
+   *
+   * @param batchSettings    the batch settings
+   * @param pipelineSettings the pipeline settings
+   */
+  public AdaptiveBatching(BatchSettings batchSettings, PipelineSettings pipelineSettings) {
+    LOG.info(
+        "Configuring adaptive batching with adaptive: {}, min-in-chunk: {}, max-in-chunk: {}, "
+        + "target-publish-latency: {}ms",
+        batchSettings.getAdaptive(),
+        batchSettings.getMinInChunk(),
+        batchSettings.getMaxInChunk(),
+        batchSettings.getTargetPublishLatency().toMillis()
+    );
+
+    this.batchSettings    = batchSettings;
+    this.pipelineSettings = pipelineSettings;
+  }
+
+  /**
+   * Creates the batch size of a pipeline. When batching is not adaptive, the batch size remains
+   * the configured one.
+   *
+   * @param name      the name of the pipeline
+   * @param chunkSize the configured batch size of the pipeline
+   * @param lagName   the name of the lag driving the batch size, {@code <stream>.<consumer>} for
+   *                  the consumers of a shared stream
+   *
+   * @return the batch size of the pipeline.
+   */
+  public AdaptiveBatchSize forPipeline(String name, int chunkSize, String lagName) {
+    final boolean adaptive = Boolean.TRUE.equals(this.batchSettings.getAdaptive());
+
+    return new AdaptiveBatchSize(
+      name,
+      chunkSize,
+      adaptive ? this.batchSettings.getMinInChunk() : chunkSize,
+      adaptive ? this.batchSettings.getMaxInChunk() : chunkSize,
+      this.batchSettings.getTargetPublishLatency(),
+      Metrics.gauge(lagName + ".stream.lag"),
+      this.pipelineSettings.getCatchUpLagThreshold()
+    );
+  }
+
+}
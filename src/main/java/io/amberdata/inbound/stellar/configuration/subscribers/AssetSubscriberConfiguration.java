@@ -14,7 +14,6 @@ import java.io.IOException;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,14 +26,10 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 
 import org.stellar.sdk.FormatException;
-import org.stellar.sdk.requests.EventListener;
 import org.stellar.sdk.responses.TransactionResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
-import shadow.com.google.common.base.Optional;
 
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-assets")
@@ -47,8 +42,11 @@ public class AssetSubscriberConfiguration {
   private final ModelMapper             modelMapper;
   private final HistoricalManager       historicalManager;
   private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -60,6 +58,10 @@ public class AssetSubscriberConfiguration {
    * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public AssetSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
@@ -68,15 +70,26 @@ public class AssetSubscriberConfiguration {
       HistoricalManager       historicalManager,
       HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
     this.modelMapper       = modelMapper;
     this.historicalManager = historicalManager;
     this.server            = server;
-    this.batchSettings     = batchSettings;
+    this.batchSize         = adaptiveBatching.forPipeline(
+      "assets",
+      batchSettings.assetsInChunk(),
+      "transactions.assets"
+    );
     this.errorsHandler     = errorsHandler;
+    this.sharedStreams     = sharedStreams;
+    this.operationsCache   = operationsCache;
+    this.schedulers        = schedulers;
   }
 
   /**
@@ -86,20 +99,19 @@ public class AssetSubscriberConfiguration {
   public void createPipeline() {
     LOG.info("Going to subscribe on Stellar Assets stream through Transactions stream");
 
-    Flux
-        .<TransactionResponse>create(
-          sink -> subscribe(
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError)
-        )
-        .publishOn(Schedulers.newElastic("assets-subscriber-thread"))
+    this.sharedStreams.transactions()
+        .register("assets", this::getCursorPointer)
+        .publishOn(this.schedulers.io())
         .timeout(this.errorsHandler.timeoutDuration())
         .map(this::toAssetsStream)
         .flatMap(Flux::fromStream)
-        .buffer(this.batchSettings.assetsInChunk())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/assets", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/assets", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
@@ -132,15 +144,7 @@ public class AssetSubscriberConfiguration {
       TransactionResponse transactionResponse
   ) {
     try {
-      return StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .operations()
-          .forTransaction(transactionResponse.getHash())
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-        "transaction.operations"
-      );
+      return this.operationsCache.forTransaction(transactionResponse);
     } catch (IOException | FormatException e) {
       LOG.error(
           "Unable to fetch information about operations for transaction "
@@ -151,34 +155,6 @@ public class AssetSubscriberConfiguration {
     }
   }
 
-  private void subscribe(Consumer<TransactionResponse> responseConsumer,
-                         Consumer<? super Throwable>   errorConsumer) {
-    String cursorPointer = getCursorPointer();
-
-    LOG.info("Subscribing to assets using transactions cursor {}", cursorPointer);
-
-    this.server.testConnection();
-    this.testCursorCorrectness(cursorPointer);
-
-    this.server.horizonServer()
-        .transactions()
-        .cursor(cursorPointer)
-        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-        .stream(new EventListener<TransactionResponse>() {
-          @Override
-          public void onEvent(TransactionResponse transactionResponse) {
-            responseConsumer.accept(transactionResponse);
-          }
-
-          @Override
-          public void onFailure(Optional<Throwable> optional, Optional<Integer> optional1) {
-            if (optional.isPresent()) {
-              errorConsumer.accept(optional.get());
-            }
-          }
-        });
-  }
-
   private String getCursorPointer() {
     if (this.historicalManager.disabled()) {
       return this.stateStorage.getStateToken(Asset.class.getSimpleName(), () -> "now");
@@ -187,15 +163,4 @@ public class AssetSubscriberConfiguration {
     }
   }
 
-  private void testCursorCorrectness(String cursorPointer) {
-    try {
-      this.server.horizonServer().transactions().cursor(cursorPointer).limit(1).execute();
-    } catch (IOException ioe) {
-      throw new HorizonServer.IncorrectRequestException(
-          "Failed to test if cursor value is valid",
-          ioe
-      );
-    }
-  }
-
 }
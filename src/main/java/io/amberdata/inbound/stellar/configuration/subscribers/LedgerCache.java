@@ -0,0 +1,119 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ehcache.Cache;
+import org.ehcache.CacheManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+
+/**
+ * Short-lived cache of data fetched per ledger.
+ *
+ * <p>Concurrent requests for a ledger being fetched wait for that fetch instead of issuing their
+ * own. Failed fetches are not cached.
+ *
+ * @param <V> the type of the cached data
+ */
+class LedgerCache<V> {
+
+  private final Cache<Long, V>                            cache;
+  private final ConcurrentMap<Long, CompletableFuture<V>> inFlight;
+  private final Metrics.Counter                           hits;
+  private final Metrics.Counter                           coalesced;
+  private final Metrics.Counter                           misses;
+
+  LedgerCache(String name, Class<V> type, int size, Duration timeToLive) {
+    this.inFlight  = new ConcurrentHashMap<>();
+    this.hits      = Metrics.counter(name + ".cache.hit");
+    this.coalesced = Metrics.counter(name + ".coalesced");
+    this.misses    = Metrics.counter(name + ".cache.miss");
+
+    CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
+    cacheManager.init();
+
+    this.cache = cacheManager.createCache(
+      name,
+      CacheConfigurationBuilder
+        .newCacheConfigurationBuilder(Long.class, type, ResourcePoolsBuilder.heap(size))
+        .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(timeToLive))
+    );
+  }
+
+  /**
+   * Returns the data of the ledger if it is cached or being fetched.
+   */
+  V getIfPresent(long ledger) throws IOException {
+    V value = this.cache.get(ledger);
+    if (value != null) {
+      return value;
+    }
+
+    CompletableFuture<V> future = this.inFlight.get(ledger);
+    return future == null ? null : LedgerCache.await(future);
+  }
+
+  /**
+   * Returns the data of the ledger, fetching it with the loader if it is not cached yet.
+   */
+  V get(long ledger, Loader<V> loader) throws IOException {
+    V value = this.cache.get(ledger);
+    if (value != null) {
+      this.hits.add(1);
+      return value;
+    }
+
+    final CompletableFuture<V> future   = new CompletableFuture<>();
+    final CompletableFuture<V> existing = this.inFlight.putIfAbsent(ledger, future);
+    if (existing != null) {
+      this.coalesced.add(1);
+      return LedgerCache.await(existing);
+    }
+
+    try {
+      this.misses.add(1);
+
+      value = loader.load(ledger);
+
+      this.cache.put(ledger, value);
+      future.complete(value);
+
+      return value;
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      this.inFlight.remove(ledger, future);
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @FunctionalInterface
+  interface Loader<V> {
+    V load(long ledger) throws IOException;
+  }
+
+}
@@ -0,0 +1,139 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.Metrics;
+import io.amberdata.inbound.stellar.configuration.properties.HorizonServerProperties;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.stereotype.Component;
+
+import org.stellar.sdk.responses.TransactionResponse;
+
+/**
+ * Short-lived cache of the effects of the most recent ledgers, indexed by operation ID.
+ *
+ * <p>Effects are fetched in bulk, per ledger or per transaction, so that mapping operations never
+ * requires a request per operation. An operation absent from an index had no effect.
+ */
+@Component
+public class LedgerEffectsCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LedgerEffectsCache.class);
+
+  private final HorizonServer            server;
+  private final LedgerCache<EffectIndex> cache;
+  private final boolean                  operationsPerLedger;
+
+  /**
+   * Default constructor.
+   *
+   * @param server           the Horizon server
+   * @param serverProperties the server properties
+   * @param pipelineSettings the pipeline settings
+   */
+  public LedgerEffectsCache(
+      HorizonServer           server,
+      HorizonServerProperties serverProperties,
+      PipelineSettings        pipelineSettings
+  ) {
+    LOG.info(
+        "Configuring ledger effects cache with size: {}, time-to-live: {}s",
+        serverProperties.getLedgerEffectsCacheSize(),
+        serverProperties.getLedgerEffectsCacheTtl().getSeconds()
+    );
+
+    this.server              = server;
+    this.operationsPerLedger = Boolean.TRUE.equals(pipelineSettings.getOperationsPerLedger());
+    this.cache               = new LedgerCache<>(
+      "ledger.effects",
+      EffectIndex.class,
+      serverProperties.getLedgerEffectsCacheSize(),
+      serverProperties.getLedgerEffectsCacheTtl()
+    );
+  }
+
+  /**
+   * Returns the effects of the operations of the specified ledger.
+   *
+   * @param ledger the ledger sequence
+   *
+   * @return the effects of the operations of the ledger, by operation ID.
+   *
+   * @throws IOException if the effects could not be fetched
+   */
+  public Map<Long, String> forLedger(long ledger) throws IOException {
+    return this.cache.get(
+      ledger,
+      sequence -> new EffectIndex(
+        StellarSubscriberConfiguration.indexEffects(
+          StellarSubscriberConfiguration.getObjects(
+            this.server,
+            this.server.horizonServer()
+              .effects()
+              .forLedger(sequence)
+              .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+              .execute(),
+            "ledger.operations.effects"
+          )
+        )
+      )
+    ).effects;
+  }
+
+  /**
+   * Returns the effects of the operations of the specified transaction. They are taken from the
+   * effects of its ledger when these are cached or fetched per ledger, and fetched for the
+   * transaction alone otherwise.
+   *
+   * @param transactionResponse the transaction
+   *
+   * @return the effects of the operations of the transaction, by operation ID.
+   *
+   * @throws IOException if the effects could not be fetched
+   */
+  public Map<Long, String> forTransaction(TransactionResponse transactionResponse)
+      throws IOException {
+    final Long ledger = transactionResponse.getLedger();
+
+    if (ledger != null) {
+      if (this.operationsPerLedger) {
+        return this.forLedger(ledger);
+      }
+
+      EffectIndex index = this.cache.getIfPresent(ledger);
+      if (index != null) {
+        return index.effects;
+      }
+    }
+
+    Metrics.count("transaction.effects.fetch", 1);
+    return StellarSubscriberConfiguration.indexEffects(
+      StellarSubscriberConfiguration.getObjects(
+        this.server,
+        this.server.horizonServer()
+          .effects()
+          .forTransaction(transactionResponse.getHash())
+          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+          .execute(),
+        "transaction.operations.effects"
+      )
+    );
+  }
+
+  private static class EffectIndex {
+    private final Map<Long, String> effects;
+
+    EffectIndex(Map<Long, String> effects) {
+      this.effects = Collections.unmodifiableMap(effects);
+    }
+  }
+
+}
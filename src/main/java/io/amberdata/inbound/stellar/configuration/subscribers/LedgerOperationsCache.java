@@ -0,0 +1,196 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.Metrics;
+import io.amberdata.inbound.stellar.configuration.properties.HorizonServerProperties;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.stereotype.Component;
+
+import org.stellar.sdk.responses.TransactionResponse;
+import org.stellar.sdk.responses.operations.OperationResponse;
+
+/**
+ * Short-lived cache of the operations of the most recent ledgers.
+ *
+ * <p>Operations are fetched once per ledger, grouped by transaction hash, and shared by all the
+ * pipelines. The operations of a transaction are served from its ledger whenever that ledger is
+ * already cached.
+ *
+ * <p>When operations are fetched per ledger, the operations of a transaction are always taken from
+ * its ledger: as transactions are streamed in ledger order, the first transaction of a ledger
+ * fetches its operations and the following ones are served from memory.
+ */
+@Component
+public class LedgerOperationsCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LedgerOperationsCache.class);
+
+  private final HorizonServer                 server;
+  private final LedgerCache<LedgerOperations> cache;
+  private final boolean                       operationsPerLedger;
+
+  /**
+   * Default constructor.
+   *
+   * @param server           the Horizon server
+   * @param serverProperties the server properties
+   * @param pipelineSettings the pipeline settings
+   */
+  public LedgerOperationsCache(
+      HorizonServer           server,
+      HorizonServerProperties serverProperties,
+      PipelineSettings        pipelineSettings
+  ) {
+    LOG.info(
+        "Configuring ledger operations cache with size: {}, time-to-live: {}s, "
+        + "operations-per-ledger: {}",
+        serverProperties.getLedgerOperationsCacheSize(),
+        serverProperties.getLedgerOperationsCacheTtl().getSeconds(),
+        pipelineSettings.getOperationsPerLedger()
+    );
+
+    this.server              = server;
+    this.operationsPerLedger = Boolean.TRUE.equals(pipelineSettings.getOperationsPerLedger());
+    this.cache               = new LedgerCache<>(
+      "ledger.operations",
+      LedgerOperations.class,
+      serverProperties.getLedgerOperationsCacheSize(),
+      serverProperties.getLedgerOperationsCacheTtl()
+    );
+  }
+
+  /**
+   * Returns the operations of the specified ledger, fetching them if they are not cached yet.
+   *
+   * @param ledger the ledger sequence
+   *
+   * @return the operations of the ledger.
+   *
+   * @throws IOException if the operations could not be fetched
+   */
+  public List<OperationResponse> forLedger(long ledger) throws IOException {
+    return this.load(ledger).operations;
+  }
+
+  /**
+   * Returns the operations of the specified transaction. They are taken from the operations of its
+   * ledger when these are cached or fetched per ledger, and fetched for the transaction alone
+   * otherwise.
+   *
+   * @param transactionResponse the transaction
+   *
+   * @return the operations of the transaction.
+   *
+   * @throws IOException if the operations could not be fetched
+   */
+  public List<OperationResponse> forTransaction(TransactionResponse transactionResponse)
+      throws IOException {
+    final Long ledger = transactionResponse.getLedger();
+
+    LedgerOperations operations = null;
+    if (ledger != null) {
+      if (this.operationsPerLedger) {
+        return this.load(ledger).forTransaction(transactionResponse.getHash());
+      }
+
+      operations = this.cache.getIfPresent(ledger);
+    }
+
+    if (operations != null) {
+      Metrics.count("transaction.operations.cache.hit", 1);
+      return operations.forTransaction(transactionResponse.getHash());
+    }
+
+    Metrics.count("transaction.operations.cache.miss", 1);
+    return StellarSubscriberConfiguration.getObjects(
+      this.server,
+      this.server.horizonServer()
+        .operations()
+        .forTransaction(transactionResponse.getHash())
+        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+        .execute(),
+      "transaction.operations"
+    );
+  }
+
+  /**
+   * Returns the specified operation, taken from the operations of its ledger.
+   *
+   * @param operationId the operation ID
+   *
+   * @return the operation, or null if it is not part of its ledger.
+   *
+   * @throws IOException if the operations of the ledger could not be fetched
+   */
+  public OperationResponse forOperation(long operationId) throws IOException {
+    return this.load(LedgerOperationsCache.ledgerOf(operationId)).byId.get(operationId);
+  }
+
+  /**
+   * Returns the ledger of the specified operation. Operation IDs are total order IDs, with the
+   * ledger sequence in their upper 32 bits.
+   *
+   * @param operationId the operation ID
+   *
+   * @return the ledger sequence.
+   */
+  public static long ledgerOf(long operationId) {
+    return operationId >>> 32;
+  }
+
+  private LedgerOperations load(long ledger) throws IOException {
+    return this.cache.get(
+      ledger,
+      sequence -> new LedgerOperations(
+        StellarSubscriberConfiguration.getObjects(
+          this.server,
+          this.server.horizonServer()
+            .operations()
+            .forLedger(sequence)
+            .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+            .execute(),
+          "ledger.operations"
+        )
+      )
+    );
+  }
+
+  private static class LedgerOperations {
+    private final List<OperationResponse>              operations;
+    private final Map<String, List<OperationResponse>> byTransaction;
+    private final Map<Long, OperationResponse>         byId;
+
+    LedgerOperations(List<OperationResponse> operations) {
+      this.operations    = Collections.unmodifiableList(operations);
+      this.byTransaction = new LinkedHashMap<>();
+      this.byId          = new HashMap<>();
+
+      for (OperationResponse operation : operations) {
+        this.byTransaction
+          .computeIfAbsent(operation.getTransactionHash(), k -> new ArrayList<>())
+          .add(operation);
+        this.byId.put(operation.getId(), operation);
+      }
+    }
+
+    List<OperationResponse> forTransaction(String transactionHash) {
+      return Collections.unmodifiableList(
+        this.byTransaction.getOrDefault(transactionHash, Collections.emptyList())
+      );
+    }
+  }
+
+}
@@ -3,7 +3,6 @@ package io.amberdata.inbound.stellar.configuration.subscribers;
 import io.amberdata.inbound.core.client.InboundApiClient;
 import io.amberdata.inbound.core.state.ResourceStateStorage;
 import io.amberdata.inbound.domain.Block;
-import io.amberdata.inbound.stellar.client.HorizonServer;
 import io.amberdata.inbound.stellar.configuration.history.HistoricalManager;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
@@ -16,11 +15,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 
-import org.stellar.sdk.responses.LedgerResponse;
-
-import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-ledgers")
 public class LedgersSubscriberConfiguration {
@@ -31,9 +25,10 @@ public class LedgersSubscriberConfiguration {
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
   private final HistoricalManager       historicalManager;
-  private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final SharedStreams           sharedStreams;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -42,26 +37,35 @@ public class LedgersSubscriberConfiguration {
    * @param apiClient         the client api
    * @param modelMapper       the model mapper
    * @param historicalManager the historical manager
-   * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param sharedStreams     the shared Horizon streams
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public LedgersSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
       InboundApiClient        apiClient,
       ModelMapper             modelMapper,
       HistoricalManager       historicalManager,
-      HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      SharedStreams           sharedStreams,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
     this.modelMapper       = modelMapper;
     this.historicalManager = historicalManager;
-    this.server            = server;
-    this.batchSettings     = batchSettings;
+    this.batchSize         = adaptiveBatching.forPipeline(
+      "blocks",
+      batchSettings.blocksInChunk(),
+      "ledgers.ledgers"
+    );
     this.errorsHandler     = errorsHandler;
+    this.sharedStreams     = sharedStreams;
+    this.schedulers        = schedulers;
   }
 
   /**
@@ -71,22 +75,18 @@ public class LedgersSubscriberConfiguration {
   public void createPipeline() {
     LOG.info("Going to subscribe on Stellar Ledgers stream");
 
-    Flux
-        .<LedgerResponse>push(
-          sink -> StellarSubscriberConfiguration.subscribeToLedgers(
-            this.server,
-            this.getCursorPointer(),
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
-        )
-        .publishOn(Schedulers.newElastic("ledgers-subscriber-thread"))
+    this.sharedStreams.ledgers()
+        .register("ledgers", this::getCursorPointer)
+        .publishOn(this.schedulers.cpu())
         .timeout(this.errorsHandler.timeoutDuration())
         .map(this.modelMapper::mapLedgerWithState)
-        .buffer(this.batchSettings.blocksInChunk())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/blocks", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/blocks", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
@@ -5,7 +5,6 @@ import io.amberdata.inbound.core.client.InboundApiClient;
 import io.amberdata.inbound.core.state.ResourceStateStorage;
 import io.amberdata.inbound.core.state.entities.ResourceState;
 import io.amberdata.inbound.domain.Order;
-import io.amberdata.inbound.stellar.client.HorizonServer;
 import io.amberdata.inbound.stellar.configuration.history.HistoricalManager;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
@@ -13,7 +12,6 @@ import io.amberdata.inbound.stellar.mapper.ModelMapper;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 import javax.annotation.PostConstruct;
@@ -25,14 +23,11 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 
 import org.stellar.sdk.FormatException;
-import org.stellar.sdk.requests.EventListener;
 import org.stellar.sdk.responses.LedgerResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
-import shadow.com.google.common.base.Optional;
+import reactor.util.function.Tuples;
 
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-orders")
@@ -44,9 +39,11 @@ public class OrdersSubscriberConfiguration {
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
   private final HistoricalManager       historicalManager;
-  private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -55,26 +52,38 @@ public class OrdersSubscriberConfiguration {
    * @param apiClient         the client api
    * @param modelMapper       the model mapper
    * @param historicalManager the historical manager
-   * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public OrdersSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
       InboundApiClient        apiClient,
       ModelMapper             modelMapper,
       HistoricalManager       historicalManager,
-      HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
     this.modelMapper       = modelMapper;
     this.historicalManager = historicalManager;
-    this.server            = server;
-    this.batchSettings     = batchSettings;
+    this.batchSize         = adaptiveBatching.forPipeline(
+      "orders",
+      batchSettings.ordersInChunk(),
+      "ledgers.orders"
+    );
     this.errorsHandler     = errorsHandler;
+    this.sharedStreams     = sharedStreams;
+    this.operationsCache   = operationsCache;
+    this.schedulers        = schedulers;
   }
 
   /**
@@ -84,30 +93,32 @@ public class OrdersSubscriberConfiguration {
   public void createPipeline() {
     LOG.info("Going to subscribe on Stellar DEX Orders stream through Ledgers stream");
 
-    Flux
-        .<LedgerResponse>push(
-          sink -> subscribe(
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
-        )
-        .publishOn(Schedulers.newElastic("orders-subscriber-thread"))
+    this.sharedStreams.ledgers()
+        .register("orders", this::getCursorPointer)
+        .publishOn(this.schedulers.io())
         .timeout(this.errorsHandler.timeoutDuration())
-        .map(this::toOrdersStream)
+        .map(
+          ledgerResponse -> Tuples.of(ledgerResponse, this.fetchOperationsForLedger(ledgerResponse))
+        )
+        .publishOn(this.schedulers.cpu())
+        .map(tuple -> this.toOrdersStream(tuple.getT1(), tuple.getT2()))
         .flatMap(Flux::fromStream)
-        .buffer(this.batchSettings.ordersInChunk())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/orders", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/orders", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
 
-  private Stream<BlockchainEntityWithState<Order>> toOrdersStream(LedgerResponse ledgerResponse) {
-    return this.modelMapper.mapOrders(
-      this.fetchOperationsForLedger(ledgerResponse),
-      ledgerResponse.getSequence()
-    )
+  private Stream<BlockchainEntityWithState<Order>> toOrdersStream(
+      LedgerResponse          ledgerResponse,
+      List<OperationResponse> operationResponses
+  ) {
+    return this.modelMapper.mapOrders(operationResponses, ledgerResponse.getSequence())
       .stream()
       .map(
         order -> BlockchainEntityWithState.from(
@@ -117,45 +128,9 @@ public class OrdersSubscriberConfiguration {
       );
   }
 
-  private void subscribe(Consumer<LedgerResponse>    responseConsumer,
-                         Consumer<? super Throwable> errorConsumer) {
-    String cursorPointer = this.getCursorPointer();
-
-    LOG.info("Subscribing to orders using ledger cursor {}", cursorPointer);
-
-    this.server.testConnection();
-    this.testCursorCorrectness(cursorPointer);
-
-    this.server.horizonServer()
-        .ledgers()
-        .cursor(cursorPointer)
-        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-        .stream(new EventListener<LedgerResponse>() {
-          @Override
-          public void onEvent(LedgerResponse ledgerResponse) {
-            responseConsumer.accept(ledgerResponse);
-          }
-
-          @Override
-          public void onFailure(Optional<Throwable> optional, Optional<Integer> optional1) {
-            if (optional.isPresent()) {
-              errorConsumer.accept(optional.get());
-            }
-          }
-        });
-  }
-
   private List<OperationResponse> fetchOperationsForLedger(LedgerResponse ledgerResponse) {
     try {
-      return StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .operations()
-          .forLedger(ledgerResponse.getSequence())
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-        "ledger.operations"
-      );
+      return this.operationsCache.forLedger(ledgerResponse.getSequence());
     } catch (IOException | FormatException e) {
       LOG.error(
           "Unable to fetch information about operations for ledger " + ledgerResponse.getSequence(),
@@ -173,15 +148,4 @@ public class OrdersSubscriberConfiguration {
     }
   }
 
-  private void testCursorCorrectness(String cursorPointer) {
-    try {
-      this.server.horizonServer().ledgers().cursor(cursorPointer).limit(1).execute();
-    } catch (IOException ioe) {
-      throw new HorizonServer.IncorrectRequestException(
-          "Failed to test if cursor value is valid",
-          ioe
-      );
-    }
-  }
-
 }
@@ -0,0 +1,160 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Schedulers shared by all the pipelines.
+ *
+ * <p>Work is split between bounded pools of threads: blocking requests to Horizon run on the I/O
+ * pool, the mapping of Horizon records to entities on the CPU pool and the publication of entities
+ * on the publish pool. Stages waiting for the tasks they issue on a pool, such as the processing
+ * of ledgers, run on their own bounded pool so that they cannot exhaust the pool they wait on.
+ *
+ * <p>The number of active threads and of queued tasks of each pool are exposed as the
+ * {@code scheduler.<pool>.active} and {@code scheduler.<pool>.queue} metrics.
+ */
+@Component
+public class PipelineSchedulers {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PipelineSchedulers.class);
+
+  /**
+   * Number of batches queued for publication by each pipeline.
+   */
+  public static final int PUBLISH_PREFETCH = 2;
+
+  private final Scheduler io;
+  private final Scheduler cpu;
+  private final Scheduler publish;
+
+  /**
+   * Default constructor.
+   *
+   * @param pipelineSettings the pipeline settings
+   */
+  public PipelineSchedulers(PipelineSettings pipelineSettings) {
+    LOG.info(
+        "Configuring schedulers with io-threads: {}, cpu-threads: {}, publish-threads: {}",
+        pipelineSettings.getIoThreads(),
+        pipelineSettings.getCpuThreads(),
+        pipelineSettings.getPublishThreads()
+    );
+
+    this.io      = PipelineSchedulers.newBounded("io", pipelineSettings.getIoThreads());
+    this.cpu     = PipelineSchedulers.newBounded("cpu", pipelineSettings.getCpuThreads());
+    this.publish = PipelineSchedulers.newBounded("publish", pipelineSettings.getPublishThreads());
+  }
+
+  /**
+   * Creates a bounded pool of threads, disposed of by the caller.
+   *
+   * @param name    the name of the pool
+   * @param threads the number of threads of the pool
+   *
+   * @return the scheduler running tasks on the pool.
+   */
+  public static Scheduler newBounded(String name, int threads) {
+    return Schedulers.fromExecutorService(new InstrumentedExecutor(name, threads));
+  }
+
+  /**
+   * Returns the scheduler of blocking requests to Horizon.
+   *
+   * @return the I/O scheduler.
+   */
+  public Scheduler io() {
+    return this.io;
+  }
+
+  /**
+   * Returns the scheduler of the mapping of Horizon records to entities.
+   *
+   * @return the CPU scheduler.
+   */
+  public Scheduler cpu() {
+    return this.cpu;
+  }
+
+  /**
+   * Returns the scheduler of the publication of entities.
+   *
+   * @return the publish scheduler.
+   */
+  public Scheduler publish() {
+    return this.publish;
+  }
+
+  /**
+   * Disposes of the I/O, CPU and publish pools once the pipelines are stopped.
+   */
+  @PreDestroy
+  public void dispose() {
+    this.io.dispose();
+    this.cpu.dispose();
+    this.publish.dispose();
+  }
+
+  private static class InstrumentedExecutor extends ThreadPoolExecutor {
+    private final AtomicInteger running;
+    private final Metrics.Gauge active;
+    private final Metrics.Gauge queued;
+
+    InstrumentedExecutor(String name, int threads) {
+      super(
+          threads,
+          threads,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<>(),
+          InstrumentedExecutor.threadFactory(name)
+      );
+
+      this.running = new AtomicInteger();
+      this.active  = Metrics.gauge("scheduler." + name + ".active");
+      this.queued  = Metrics.gauge("scheduler." + name + ".queue");
+    }
+
+    private static CustomizableThreadFactory threadFactory(String name) {
+      CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name + "-thread-");
+      threadFactory.setDaemon(true);
+      return threadFactory;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      super.execute(command);
+      this.queued.set(this.getQueue().size());
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+      super.beforeExecute(thread, runnable);
+      this.active.set(this.running.incrementAndGet());
+      this.queued.set(this.getQueue().size());
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+      super.afterExecute(runnable, throwable);
+      this.active.set(this.running.decrementAndGet());
+    }
+  }
+
+}
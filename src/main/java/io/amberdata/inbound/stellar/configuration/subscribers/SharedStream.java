@@ -0,0 +1,436 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.stellar.sdk.requests.RequestBuilder;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Hot stream of Horizon records shared by several pipelines.
+ *
+ * <p>A single stream is opened to Horizon, starting from the oldest cursor of the registered
+ * consumers, and its records are fanned out to all of them. Each consumer only receives the
+ * records past its own cursor and buffers them on its own, so a slow consumer does not hold back
+ * the others. A consumer re-subscribing after an error resumes from its stored cursor: the most
+ * recent records are replayed from memory and older ones are fetched again from Horizon.
+ *
+ * <p>When the buffer of a consumer overflows, the consumer is detached from the stream without
+ * failing: the records it did not receive yet are fetched from Horizon with pages, at its own
+ * pace, and it is attached again to the stream once it caught up with the records kept in memory.
+ *
+ * <p>The stream is opened from the oldest cursor of the consumers when it is less than the lag
+ * threshold behind the network tip, and from the tip otherwise: the consumers behind it then catch
+ * up on their own with pages, at their own pace, before they are attached to the stream. Horizon
+ * is therefore never paged faster than the consumers request records. The lag of each consumer is
+ * exposed in ledgers as {@code <stream>.<consumer>.stream.lag}, and the lag of the slowest one as
+ * {@code <stream>.stream.lag}.
+ *
+ * <p>The buffer of each consumer is exposed as the {@code <stream>.<consumer>.stream.queue} queue
+ * depth, and its overflows as the {@code <stream>.<consumer>.stream.overflows} counter.
+ *
+ * @param <T> the type of the records
+ */
+public class SharedStream<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedStream.class);
+
+  private static final String NOW_CURSOR_POINTER = "now";
+  private static final int    REPLAY_HISTORY     = HorizonServer.HORIZON_PER_REQUEST_LIMIT;
+
+  private final String              name;
+  private final StreamSubscriber<T> subscriber;
+  private final PageFetcher<T>      pageFetcher;
+  private final Function<T, String> pagingToken;
+  private final int                 bufferSize;
+  private final int                 catchUpLagThreshold;
+  private final Scheduler           catchUpScheduler;
+  private final Metrics.Gauge       lag;
+  private final MonoProcessor<Long> opened;
+
+  private final List<StreamConsumer> consumers;
+  private final Deque<Long>          retained;
+  private final ConnectableFlux<T>   source;
+
+  private Disposable    connection;
+  private volatile long streamStart = Long.MIN_VALUE;
+
+  /**
+   * Default constructor.
+   *
+   * @param name          the name of the stream
+   * @param subscriber    the function opening the stream to Horizon
+   * @param pageFetcher   the function fetching a page of records from Horizon
+   * @param pagingToken   the function returning the paging token of a record
+   * @param errorsHandler the error handler
+   * @param bufferSize    the maximum number of records buffered for each consumer
+   * @param lagThreshold  the number of ledgers behind the tip below which the stream is opened
+   *                      from the cursor of the consumers rather than from the tip
+   * @param ioScheduler   the scheduler fetching the pages of records of the consumers catching up
+   */
+  public SharedStream(
+      String                  name,
+      StreamSubscriber<T>     subscriber,
+      PageFetcher<T>          pageFetcher,
+      Function<T, String>     pagingToken,
+      SubscriberErrorsHandler errorsHandler,
+      int                     bufferSize,
+      int                     lagThreshold,
+      Scheduler               ioScheduler
+  ) {
+    this.name                = name;
+    this.subscriber          = subscriber;
+    this.pageFetcher         = pageFetcher;
+    this.pagingToken         = pagingToken;
+    this.bufferSize          = bufferSize;
+    this.catchUpLagThreshold = lagThreshold;
+    this.catchUpScheduler    = ioScheduler;
+    this.lag                 = Metrics.gauge(name + ".stream.lag");
+    this.consumers           = new CopyOnWriteArrayList<>();
+    this.retained            = new ArrayDeque<>();
+    this.opened              = MonoProcessor.create();
+
+    // The stream is opened from the last record retained, it is not buffered: the consumers
+    // buffer the records on their own.
+    this.source = Flux
+        .defer(() -> StreamBuffer.open(name, subscriber, this::startCursor))
+        .timeout(errorsHandler.timeoutDuration())
+        .retryWhen(errorsHandler::onError)
+        .doOnNext(this::retain)
+        .replay(REPLAY_HISTORY);
+  }
+
+  /**
+   * Registers a new consumer of the stream.
+   *
+   * @param consumerName  the name of the consumer
+   * @param cursorPointer the supplier of the cursor to resume the consumer from
+   *
+   * @return the records of the stream past the cursor of the consumer.
+   */
+  public Flux<T> register(String consumerName, Supplier<String> cursorPointer) {
+    LOG.info("Registering {} on shared {} stream", consumerName, this.name);
+
+    final StreamConsumer consumer = new StreamConsumer(
+        new StreamBuffer<>(this.name + "." + consumerName, this.bufferSize),
+        Metrics.gauge(this.name + "." + consumerName + ".stream.lag")
+    );
+    this.consumers.add(consumer);
+
+    // Consumers wait for the stream to be opened, to know whether they have to catch up first.
+    return Flux.defer(
+      () -> {
+        consumer.reset(this.resolve(cursorPointer.get()));
+        return this.opened.flatMapMany(start -> this.consume(consumerName, consumer));
+      }
+    );
+  }
+
+  /**
+   * Opens the stream to Horizon if it has any consumer.
+   */
+  public synchronized void connect() {
+    if (this.connection != null || this.consumers.isEmpty()) {
+      return;
+    }
+
+    this.streamStart = this.startPosition();
+
+    LOG.info(
+        "Opening shared {} stream from {} for {} consumer(s)",
+        this.name,
+        this.streamStart,
+        this.consumers.size()
+    );
+    this.opened.onNext(this.streamStart);
+    this.connection = this.source.connect();
+  }
+
+  private long startPosition() {
+    long oldest = Long.MAX_VALUE;
+    for (StreamConsumer consumer : this.consumers) {
+      oldest = Math.min(oldest, consumer.position);
+    }
+
+    final long tip = this.tipPosition();
+    if (oldest == Long.MAX_VALUE) {
+      return tip;
+    }
+
+    final long lag = SharedStream.lag(oldest, tip);
+    if (lag >= this.catchUpLagThreshold) {
+      LOG.info(
+          "Consumers of shared {} stream are up to {} ledger(s) behind, catching up with pages",
+          this.name,
+          lag
+      );
+      return tip;
+    }
+
+    return oldest;
+  }
+
+  private String startCursor() {
+    final Long last = this.lastRetained();
+    return String.valueOf(last != null ? last : this.streamStart);
+  }
+
+  private long resolve(String cursor) {
+    if (!NOW_CURSOR_POINTER.equals(cursor)) {
+      return Long.parseLong(cursor);
+    }
+
+    final Long last = this.lastRetained();
+    return last != null ? last : this.tipPosition();
+  }
+
+  private Flux<T> consume(String consumerName, StreamConsumer consumer) {
+    return this.follow(consumerName, consumer)
+      .doOnNext(record -> this.delivered(consumer, this.position(record)))
+      .onErrorResume(
+        StreamBuffer::isOverflow,
+        throwable -> {
+          LOG.info(
+              "Resuming {} on shared {} stream from {}",
+              consumerName,
+              this.name,
+              consumer.delivered
+          );
+          consumer.rewind();
+          return this.consume(consumerName, consumer);
+        }
+      );
+  }
+
+  private Flux<T> follow(String consumerName, StreamConsumer consumer) {
+    return Flux.defer(
+      () -> {
+        final long from = consumer.position;
+        final Long to   = this.fetchLimit(from);
+        if (to == null) {
+          return this.attach(consumer);
+        }
+
+        this.updateLag(consumer, from);
+
+        LOG.info(
+            "Cursor of {} is too far behind the {} kept in memory, fetching them from {}",
+            consumerName,
+            this.name,
+            from
+        );
+
+        // Pages are fetched at the pace of the consumer, which is attached to the stream again
+        // once it caught up, unless Horizon did not return any new record.
+        return Flux.concat(
+          this.fetchRange(from, to).filter(record -> consumer.advance(this.position(record))),
+          Flux.defer(
+            () -> consumer.position > from
+              ? this.follow(consumerName, consumer)
+              : this.attach(consumer)
+          )
+        );
+      }
+    );
+  }
+
+  private Flux<T> attach(StreamConsumer consumer) {
+    return consumer.buffer.buffer(
+      this.source.filter(record -> consumer.advance(this.position(record)))
+    );
+  }
+
+  /**
+   * Returns the position up to which the records following a position should be fetched from
+   * Horizon rather than replayed from memory, or null if they can be replayed. Records are fetched
+   * when some of them are not kept in memory anymore, or when there are too many of them to fit
+   * into the buffer of a consumer.
+   */
+  private Long fetchLimit(long position) {
+    synchronized (this.retained) {
+      if (this.retained.isEmpty()) {
+        return position < this.streamStart ? this.streamStart : null;
+      }
+
+      if (this.retained.peekFirst() > position) {
+        return this.retained.peekLast();
+      }
+
+      int                  following = 0;
+      final Iterator<Long> positions = this.retained.descendingIterator();
+      while (positions.hasNext() && positions.next() > position) {
+        if (++following >= this.bufferSize) {
+          return this.retained.peekLast();
+        }
+      }
+
+      return null;
+    }
+  }
+
+  private void delivered(StreamConsumer consumer, long position) {
+    consumer.delivered = position;
+    this.updateLag(consumer, position);
+  }
+
+  private void updateLag(StreamConsumer consumer, long position) {
+    // The stream follows the tip once opened, its last record is the most recent tip known.
+    final Long last = this.lastRetained();
+    final long tip  = Math.max(last != null ? last : 0L, this.streamStart);
+    consumer.lag.set(SharedStream.lag(position, tip));
+
+    double slowest = 0;
+    for (StreamConsumer other : this.consumers) {
+      slowest = Math.max(slowest, other.lag.value());
+    }
+    this.lag.set(slowest);
+  }
+
+  private long tipPosition() {
+    try {
+      List<T> records = this.pageFetcher.fetch(null, RequestBuilder.Order.DESC, 1);
+
+      return records.isEmpty() ? 0L : this.position(records.get(0));
+    } catch (IOException ioe) {
+      throw new HorizonServer.IncorrectRequestException(
+          "Failed to get current cursor pointer for " + this.name,
+          ioe
+      );
+    }
+  }
+
+  /**
+   * Returns the number of ledgers between two positions. Paging tokens of ledgers and of the
+   * records they contain are total order IDs, with the ledger sequence in their upper 32 bits.
+   */
+  private static long lag(long position, long tip) {
+    return Math.max(0L, (tip >>> 32) - (position >>> 32));
+  }
+
+  private Flux<T> fetchRange(long from, long to) {
+    return Flux
+      .<List<T>, String>generate(
+        () -> String.valueOf(from),
+        (cursor, sink) -> {
+          try {
+            List<T> records = this.pageFetcher
+                .fetch(cursor, RequestBuilder.Order.ASC, HorizonServer.HORIZON_PER_REQUEST_LIMIT);
+
+            if (records.isEmpty()) {
+              sink.complete();
+              return cursor;
+            }
+
+            sink.next(records);
+            return this.pagingToken.apply(records.get(records.size() - 1));
+          } catch (IOException ioe) {
+            sink.error(ioe);
+            return cursor;
+          }
+        }
+      )
+      // Pages are fetched on the I/O pool, one page ahead of the records being consumed.
+      .subscribeOn(this.catchUpScheduler)
+      .flatMapIterable(Function.identity(), 2)
+      .takeWhile(record -> this.position(record) <= to);
+  }
+
+  private long position(T record) {
+    return Long.parseLong(this.pagingToken.apply(record));
+  }
+
+  private void retain(T record) {
+    synchronized (this.retained) {
+      this.retained.addLast(this.position(record));
+      if (this.retained.size() > REPLAY_HISTORY) {
+        this.retained.removeFirst();
+      }
+    }
+  }
+
+  private Long lastRetained() {
+    synchronized (this.retained) {
+      return this.retained.peekLast();
+    }
+  }
+
+  private class StreamConsumer {
+    private final StreamBuffer<T> buffer;
+    private final Metrics.Gauge   lag;
+
+    private volatile long position  = Long.MAX_VALUE;
+    private volatile long delivered = Long.MAX_VALUE;
+
+    StreamConsumer(StreamBuffer<T> buffer, Metrics.Gauge lag) {
+      this.buffer = buffer;
+      this.lag    = lag;
+    }
+
+    void reset(long position) {
+      this.position  = position;
+      this.delivered = position;
+    }
+
+    /**
+     * Moves the consumer back to the last record it was delivered, dropping the records it
+     * received in its buffer.
+     */
+    void rewind() {
+      this.position = this.delivered;
+    }
+
+    boolean advance(long recordPosition) {
+      if (recordPosition <= this.position) {
+        return false;
+      }
+
+      this.position = recordPosition;
+      return true;
+    }
+  }
+
+  /**
+   * Opens a stream of records from Horizon, returning the stream to close.
+   *
+   * @param <T> the type of the records
+   */
+  @FunctionalInterface
+  public interface StreamSubscriber<T> {
+    Closeable subscribe(
+        String                      cursorPointer,
+        Consumer<T>                 responseConsumer,
+        Consumer<? super Throwable> errorConsumer
+    );
+  }
+
+  /**
+   * Fetches the records of a page from Horizon.
+   *
+   * @param <T> the type of the records
+   */
+  @FunctionalInterface
+  public interface PageFetcher<T> {
+    List<T> fetch(String cursorPointer, RequestBuilder.Order order, int limit) throws IOException;
+  }
+
+}
@@ -0,0 +1,120 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import org.stellar.sdk.requests.LedgersRequestBuilder;
+import org.stellar.sdk.requests.TransactionsRequestBuilder;
+import org.stellar.sdk.responses.LedgerResponse;
+import org.stellar.sdk.responses.TransactionResponse;
+
+/**
+ * Horizon streams shared by all the enabled pipelines.
+ *
+ * <p>Pipelines register on the streams while they are created, the streams are then opened once
+ * the application context is refreshed, starting from the oldest cursor of their consumers.
+ */
+@Component
+public class SharedStreams {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SharedStreams.class);
+
+  private final SharedStream<LedgerResponse>      ledgers;
+  private final SharedStream<TransactionResponse> transactions;
+
+  /**
+   * Default constructor.
+   *
+   * @param server           the Horizon server
+   * @param errorsHandler    the error handler
+   * @param pipelineSettings the pipeline settings
+   * @param schedulers       the pipeline schedulers
+   */
+  public SharedStreams(
+      HorizonServer           server,
+      SubscriberErrorsHandler errorsHandler,
+      PipelineSettings        pipelineSettings,
+      PipelineSchedulers      schedulers
+  ) {
+    LOG.info(
+        "Configuring shared streams with stream-buffer-size: {}, catch-up-lag-threshold: {}",
+        pipelineSettings.getStreamBufferSize(),
+        pipelineSettings.getCatchUpLagThreshold()
+    );
+
+    this.ledgers = new SharedStream<>(
+      "ledgers",
+      (cursorPointer, responseConsumer, errorConsumer) ->
+        StellarSubscriberConfiguration.subscribeToLedgers(
+          server,
+          cursorPointer,
+          responseConsumer,
+          errorConsumer
+        ),
+      (cursorPointer, order, limit) -> {
+        LedgersRequestBuilder builder = server.horizonServer().ledgers();
+        if (cursorPointer != null) {
+          builder.cursor(cursorPointer);
+        }
+        builder.order(order);
+        builder.limit(limit);
+        return builder.execute().getRecords();
+      },
+      LedgerResponse::getPagingToken,
+      errorsHandler,
+      pipelineSettings.getStreamBufferSize(),
+      pipelineSettings.getCatchUpLagThreshold(),
+      schedulers.io()
+    );
+
+    this.transactions = new SharedStream<>(
+      "transactions",
+      (cursorPointer, responseConsumer, errorConsumer) ->
+        StellarSubscriberConfiguration.subscribeToTransactions(
+          server,
+          cursorPointer,
+          responseConsumer,
+          errorConsumer
+        ),
+      (cursorPointer, order, limit) -> {
+        TransactionsRequestBuilder builder = server.horizonServer().transactions();
+        if (cursorPointer != null) {
+          builder.cursor(cursorPointer);
+        }
+        builder.order(order);
+        builder.limit(limit);
+        return builder.execute().getRecords();
+      },
+      TransactionResponse::getPagingToken,
+      errorsHandler,
+      pipelineSettings.getStreamBufferSize(),
+      pipelineSettings.getCatchUpLagThreshold(),
+      schedulers.io()
+    );
+  }
+
+  public SharedStream<LedgerResponse> ledgers() {
+    return this.ledgers;
+  }
+
+  public SharedStream<TransactionResponse> transactions() {
+    return this.transactions;
+  }
+
+  /**
+   * Opens the streams having consumers once all the pipelines are created.
+   */
+  @EventListener(ContextRefreshedEvent.class)
+  public void connect() {
+    this.ledgers.connect();
+    this.transactions.connect();
+  }
+
+}
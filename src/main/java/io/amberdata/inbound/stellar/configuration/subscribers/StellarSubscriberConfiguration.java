@@ -3,17 +3,24 @@ package io.amberdata.inbound.stellar.configuration.subscribers;
 import io.amberdata.inbound.core.client.BlockchainEntityWithState;
 import io.amberdata.inbound.core.client.InboundApiClient;
 import io.amberdata.inbound.core.state.ResourceStateStorage;
+import io.amberdata.inbound.core.state.entities.ResourceState;
 import io.amberdata.inbound.domain.Address;
 import io.amberdata.inbound.domain.Asset;
 import io.amberdata.inbound.domain.Block;
 import io.amberdata.inbound.domain.FunctionCall;
 import io.amberdata.inbound.domain.Transaction;
+import io.amberdata.inbound.stellar.StellarInboundApplication;
+import io.amberdata.inbound.stellar.client.AccountLoader;
+import io.amberdata.inbound.stellar.client.Histogram;
 import io.amberdata.inbound.stellar.client.HorizonServer;
 import io.amberdata.inbound.stellar.client.Metrics;
 import io.amberdata.inbound.stellar.configuration.history.HistoricalManager;
+import io.amberdata.inbound.stellar.configuration.history.LedgerShard;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
+import io.amberdata.inbound.stellar.configuration.properties.PipelineSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 import java.math.BigDecimal;
@@ -26,13 +33,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.ehcache.Cache;
 import org.ehcache.CacheManager;
@@ -50,7 +66,8 @@ import org.springframework.context.annotation.Configuration;
 import org.stellar.sdk.FormatException;
 import org.stellar.sdk.requests.AssetsRequestBuilder;
 import org.stellar.sdk.requests.EventListener;
-import org.stellar.sdk.responses.AccountResponse;
+import org.stellar.sdk.requests.LedgersRequestBuilder;
+import org.stellar.sdk.requests.RequestBuilder;
 import org.stellar.sdk.responses.AssetResponse;
 import org.stellar.sdk.responses.LedgerResponse;
 import org.stellar.sdk.responses.Page;
@@ -58,20 +75,49 @@ import org.stellar.sdk.responses.TransactionResponse;
 import org.stellar.sdk.responses.effects.EffectResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuple3;
+import reactor.util.function.Tuples;
 
 import shadow.com.google.common.base.Optional;
+import shadow.okhttp3.OkHttpClient;
 
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-all")
 public class StellarSubscriberConfiguration {
   private static final Logger LOG = LoggerFactory.getLogger(StellarSubscriberConfiguration.class);
 
-  /* package */ static void subscribeToLedgers(HorizonServer               server,
-                                               String                      cursorPointer,
-                                               Consumer<LedgerResponse>    responseConsumer,
-                                               Consumer<? super Throwable> errorConsumer) {
+  private static final int PREFETCH_PAGES = 2;
+
+  private static final Histogram LEDGER              = Metrics.histogram("performance.ledger");
+  private static final Histogram FETCH_LEDGER_DATA   =
+      Metrics.histogram("performance.fetchledgerdata");
+  private static final Histogram GET_TRANSACTIONS    =
+      Metrics.histogram("performance.gettransactions");
+  private static final Histogram GET_EFFECTS         = Metrics.histogram("performance.geteffects");
+  private static final Histogram GET_OPERATIONS      =
+      Metrics.histogram("performance.getoperations");
+  private static final Histogram ENRICH_TRANSACTIONS =
+      Metrics.histogram("performance.enrichtransactions");
+  private static final Histogram COLLECT_ADDRESSES   =
+      Metrics.histogram("performance.collectaddresses");
+  private static final Histogram PUBLISH             = Metrics.histogram("performance.publish");
+  private static final Histogram PUBLISH_LEDGERS     =
+      Metrics.histogram("performance.publishledgers");
+
+  /* package */ static Closeable subscribeToLedgers(
+      HorizonServer               server,
+      String                      cursorPointer,
+      Consumer<LedgerResponse>    responseConsumer,
+      Consumer<? super Throwable> errorConsumer
+  ) {
     LOG.info("Subscribing to ledgers using cursor {}", cursorPointer);
 
     server.testConnection();
@@ -79,7 +125,7 @@ public class StellarSubscriberConfiguration {
 
     // LedgerResponse ledgerResponse = this.server.horizonServer().ledgers().ledger(0L);
 
-    server.horizonServer()
+    return server.horizonServer()
         .ledgers()
         .cursor(cursorPointer)
         .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
@@ -98,6 +144,36 @@ public class StellarSubscriberConfiguration {
         });
   }
 
+  /* package */ static Closeable subscribeToTransactions(
+      HorizonServer                 server,
+      String                        cursorPointer,
+      Consumer<TransactionResponse> responseConsumer,
+      Consumer<? super Throwable>   errorConsumer
+  ) {
+    LOG.info("Subscribing to transactions using cursor {}", cursorPointer);
+
+    server.testConnection();
+    StellarSubscriberConfiguration.testTransactionsCursorCorrectness(server, cursorPointer);
+
+    return server.horizonServer()
+        .transactions()
+        .cursor(cursorPointer)
+        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+        .stream(new EventListener<TransactionResponse>() {
+          @Override
+          public void onEvent(TransactionResponse transactionResponse) {
+            responseConsumer.accept(transactionResponse);
+          }
+
+          @Override
+          public void onFailure(Optional<Throwable> optional, Optional<Integer> optional1) {
+            if (optional.isPresent()) {
+              errorConsumer.accept(optional.get());
+            }
+          }
+        });
+  }
+
   /* package */ static Asset enrichAsset(HorizonServer server, Asset asset) {
     try {
       final AssetsRequestBuilder builder = server
@@ -141,30 +217,94 @@ public class StellarSubscriberConfiguration {
       Page<T> page,
       final String metricsKey
   ) {
-    List<T> list     = new ArrayList<>();
-    String  previous = null;
-    String  current  = page.getLinks().getSelf().getHref();
+    return StellarSubscriberConfiguration.pages(server, page, metricsKey)
+      .flatMapIterable(Function.identity())
+      .collectList()
+      .block();
+  }
 
-    try {
-      do {
-        if ((current == null) || current.equals(previous)) {
-          break;
+  /**
+   * Streams the records of a page and of the pages following it. Pages are fetched on the fetch
+   * scheduler up to {@link #PREFETCH_PAGES} pages ahead of the records being consumed on the
+   * consume scheduler, so that records are processed while the next page is fetched and at most a
+   * few pages are held in memory.
+   */
+  /* package */ static <T> Flux<T> streamObjects(
+      final HorizonServer server,
+      Page<T>             page,
+      final String        metricsKey,
+      Scheduler           fetchScheduler,
+      Scheduler           consumeScheduler
+  ) {
+    return StellarSubscriberConfiguration.pages(server, page, metricsKey)
+      .subscribeOn(fetchScheduler)
+      .publishOn(consumeScheduler, PREFETCH_PAGES)
+      .flatMapIterable(Function.identity());
+  }
+
+  private static <T> Flux<List<T>> pages(
+      final HorizonServer server,
+      Page<T>             firstPage,
+      final String        metricsKey
+  ) {
+    final OkHttpClient httpClient = server.horizonServer().getHttpClient();
+
+    return Flux.generate(
+      () -> firstPage,
+      (page, sink) -> {
+        final List<T> records = page.getRecords();
+        if (records.isEmpty()) {
+          sink.complete();
+          return page;
         }
 
         if (!metricsKey.isEmpty()) {
-          Metrics.count(metricsKey, page.getRecords().size());
+          Metrics.count(metricsKey, records.size());
         }
-        list.addAll(page.getRecords());
-        page = page.getNextPage(server.horizonServer().getHttpClient());
-
-        previous = current;
-        current  = page == null ? null : page.getLinks().getSelf().getHref();
-      } while (page != null);
-    } catch (IOException | URISyntaxException e) {
-      throw new HorizonServer.StellarException(e.getMessage(), e.getCause());
+        sink.next(records);
+
+        try {
+          final Page<T> next = page.getNextPage(httpClient);
+
+          // Horizon links an exhausted page to itself.
+          if (next == null
+              || next.getLinks().getSelf().getHref().equals(page.getLinks().getSelf().getHref())) {
+            sink.complete();
+            return page;
+          }
+
+          return next;
+        } catch (IOException | URISyntaxException e) {
+          sink.error(new HorizonServer.StellarException(e.getMessage(), e.getCause()));
+          return page;
+        }
+      }
+    );
+  }
+
+  /* package */ static Map<Long, String> indexEffects(List<EffectResponse> effects)
+      throws IOException {
+    Map<Long, String> effectLookup = new HashMap<>();
+    for (EffectResponse effect : effects) {
+      final URL operationUri = new URL(effect.getLinks().getOperation().getHref());
+      final String[] fields = operationUri.getPath().split("/");
+
+      if (fields.length < 2 || !fields[fields.length - 2].equals("operations")) {
+        LOG.error("unexpected operation href: {} fields: {} length: {} element: {}", operationUri, (Object)fields, fields.length, fields[fields.length - 2]);
+        throw new RuntimeException("assertion failed for operation id extraction");
+      }
+
+      final Long operationId = Long.parseLong(fields[fields.length - 1]);
+      String effectContents = effectLookup.getOrDefault(operationId, "");
+
+      if (!effectContents.isEmpty()) {
+        effectContents += ",";
+      }
+      effectContents += effect.getType();
+      effectLookup.put(operationId, effectContents);
     }
 
-    return list;
+    return effectLookup;
   }
 
   private static Map<String, Object> assetOptionalProperties(AssetResponse assetResponse) {
@@ -192,6 +332,20 @@ public class StellarSubscriberConfiguration {
     }
   }
 
+  private static void testTransactionsCursorCorrectness(
+      HorizonServer server,
+      String        cursorPointer
+  ) {
+    try {
+      server.horizonServer().transactions().cursor(cursorPointer).limit(1).execute();
+    } catch (IOException ioe) {
+      throw new HorizonServer.IncorrectRequestException(
+          "Failed to test if cursor value is valid",
+          ioe
+      );
+    }
+  }
+
   private final ResourceStateStorage    stateStorage;
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
@@ -200,6 +354,18 @@ public class StellarSubscriberConfiguration {
   private final BatchSettings           batchSettings;
   private final SubscriberErrorsHandler errorsHandler;
   private final Cache<String, Asset>    cache;
+  private final PipelineSettings        pipelineSettings;
+  private final AccountLoader           accountLoader;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final LedgerEffectsCache      effectsCache;
+  private final PipelineSchedulers      schedulers;
+  private final Scheduler               ledgerScheduler;
+  private final AdaptiveBatchSize       blocksBatchSize;
+  private final AdaptiveBatching        adaptiveBatching;
+  private final Metrics.Gauge           backfillLag;
+  private final Map<LedgerShard, Long>  backfillRemaining;
+  private final AtomicLong              backfillRemainingTotal;
 
   /**
    * Default constructor.
@@ -211,6 +377,13 @@ public class StellarSubscriberConfiguration {
    * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param pipelineSettings  the pipeline settings
+   * @param accountLoader     the account loader
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param effectsCache      the ledger effects cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public StellarSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
@@ -219,7 +392,14 @@ public class StellarSubscriberConfiguration {
       HistoricalManager       historicalManager,
       HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      PipelineSettings        pipelineSettings,
+      AccountLoader           accountLoader,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      LedgerEffectsCache      effectsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
@@ -228,6 +408,28 @@ public class StellarSubscriberConfiguration {
     this.server            = server;
     this.batchSettings     = batchSettings;
     this.errorsHandler     = errorsHandler;
+    this.pipelineSettings  = pipelineSettings;
+    this.accountLoader     = accountLoader;
+    this.sharedStreams     = sharedStreams;
+    this.operationsCache   = operationsCache;
+    this.effectsCache      = effectsCache;
+    this.schedulers        = schedulers;
+    this.blocksBatchSize   = adaptiveBatching.forPipeline(
+      "all.blocks",
+      batchSettings.blocksInChunk(),
+      "ledgers.all"
+    );
+    this.adaptiveBatching  = adaptiveBatching;
+    this.backfillLag       = Metrics.gauge("backfill.stream.lag");
+
+    this.backfillRemaining      = new ConcurrentHashMap<>();
+    this.backfillRemainingTotal = new AtomicLong();
+
+    // Ledgers being processed wait for their requests on the I/O pool, they have their own pool.
+    this.ledgerScheduler = PipelineSchedulers.newBounded(
+      "ledgers-processing",
+      pipelineSettings.getLedgersInFlight()
+    );
 
     CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build();
     cacheManager.init();
@@ -249,117 +451,374 @@ public class StellarSubscriberConfiguration {
    */
   @PostConstruct
   public void createPipeline() {
+    if (this.historicalManager.backfillEnabled()) {
+      this.createBackfillPipeline();
+      return;
+    }
+
     LOG.info("Going to subscribe on Stellar Ledgers stream");
 
-    Flux
-        .<LedgerResponse>push(
-          sink -> StellarSubscriberConfiguration.subscribeToLedgers(
-            this.server,
-            this.getCursorPointer(),
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
-        )
-        .publishOn(Schedulers.newElastic("ledgers-subscriber-thread"))
+    this.sharedStreams.ledgers()
+        .register("all", this::getCursorPointer)
+        .publishOn(this.schedulers.cpu())
         .timeout(this.errorsHandler.timeoutDuration())
         .map(this.modelMapper::mapLedgerWithState)
-        .buffer(this.batchSettings.blocksInChunk())
+        // Ledgers are fetched and enriched concurrently, but are emitted in sequence order so
+        // the stored cursor never runs ahead of a ledger which has not been published yet.
+        .flatMapSequential(
+          block -> Mono
+            .fromCallable(() -> this.processLedger(block))
+            .subscribeOn(this.ledgerScheduler),
+          this.pipelineSettings.getLedgersInFlight()
+        )
+        // Entities of consecutive ledgers are coalesced and published while the next ledgers are
+        // fetched, blocks are only published once all their entities are.
+        .transform(this::coalesce)
+        .concatMap(this::publishEntities, this.pipelineSettings.getPublishQueueSize())
+        .transform(this.blocksBatchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          this::processLedgers,
+          this.blocksBatchSize.publisher(this::publishLedgers),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
 
-  private void processLedgers(List<BlockchainEntityWithState<Block>> blocks) {
-    @SuppressWarnings("checkstyle:VariableDeclarationUsageDistance")
-    long timeLedgers = System.currentTimeMillis();
-    long maxSequence = 0;
+  /**
+   * Disposes of the pool of threads processing the ledgers.
+   */
+  @PreDestroy
+  public void dispose() {
+    this.ledgerScheduler.dispose();
+  }
 
-    for (BlockchainEntityWithState<Block> block : blocks) {
-      Metrics.count("blocks", 1);
+  private void createBackfillPipeline() {
+    final List<LedgerShard> shards = this.historicalManager.backfillShards();
 
-      @SuppressWarnings("checkstyle:VariableDeclarationUsageDistance")
-      long timeLedger = System.currentTimeMillis();
+    LOG.info(
+        "Going to backfill Stellar Ledgers from {} to {} in {} shard(s) with {} worker(s)",
+        shards.get(0).getStart(),
+        shards.get(shards.size() - 1).getEnd(),
+        shards.size(),
+        this.historicalManager.getBackfillWorkers()
+    );
 
-      long ledger = block.getEntity().getNumber().longValue();
-      if (ledger > maxSequence) {
-        maxSequence = ledger;
-      }
+    // The lag of the backfill is the number of ledgers remaining in all the shards, until they
+    // report their own progress.
+    for (LedgerShard shard : shards) {
+      this.updateBackfillLag(shard, shard.getEnd() - shard.getStart() + 1);
+    }
 
-      List<Transaction> transactions = new ArrayList<>();
-      Set<Address>      addresses    = new HashSet<>();
-      Set<Asset>        assets       = new HashSet<>();
+    final Scheduler backfillScheduler = PipelineSchedulers.newBounded(
+        "ledgers-backfill",
+        this.historicalManager.getBackfillWorkers()
+    );
 
-      try {
-        long timeTransactions = System.currentTimeMillis();
-        final List<TransactionResponse> responses = StellarSubscriberConfiguration.getObjects(
-            this.server,
-            this.server.horizonServer()
-              .transactions()
-              .forLedger(ledger)
-              .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-              .execute(),
-            "ledger.transactions"
-        );
-        this.logPerformance("getTransactions", timeTransactions);
-
-        final long timeEffects = System.currentTimeMillis();
-        final Map<Long, String> effectLookup = this.fetchEffectsForLedger(ledger);
-        this.logPerformance("getEffects", timeEffects);
-
-        final long timeOperations = System.currentTimeMillis();
-        final List<OperationResponse> operationResponses = this.fetchOperationsForLedger(ledger);
-        this.logPerformance("getOperations", timeOperations);
-
-        final Map<String, List<OperationResponse>> operations = new HashMap<>();
-        for (final OperationResponse operationResponse : operationResponses) {
-          String transactionHash = operationResponse.getTransactionHash();
-          operations
-              .computeIfAbsent(transactionHash, k -> new ArrayList<>())
-              .add(operationResponse);
+    Flux.fromIterable(shards)
+        .flatMap(
+          shard -> this.backfillShard(shard).subscribeOn(backfillScheduler),
+          this.historicalManager.getBackfillWorkers()
+        )
+        .then()
+        .subscribe(
+          null,
+          SubscriberErrorsHandler::handleFatalApplicationError,
+          () -> {
+            LOG.info("Backfill of Stellar Ledgers completed");
+            backfillScheduler.dispose();
+            StellarInboundApplication.shutdown();
+          }
+      );
+  }
+
+  private void updateBackfillLag(LedgerShard shard, long remaining) {
+    final Long previous = this.backfillRemaining.put(shard, Math.max(0L, remaining));
+    this.backfillLag.set(
+        this.backfillRemainingTotal.addAndGet(
+          Math.max(0L, remaining) - (previous != null ? previous : 0L)
+        )
+    );
+  }
+
+  private Mono<Void> backfillShard(LedgerShard shard) {
+    // Shards are backfilled concurrently, each one times the filling of its own batches.
+    final AdaptiveBatchSize batchSize = this.adaptiveBatching.forPipeline(
+        "backfill.blocks",
+        this.batchSettings.blocksInChunk(),
+        "backfill"
+    );
+
+    return Flux
+      .defer(() -> this.fetchShardLedgers(shard))
+      .map(
+        ledgerResponse -> BlockchainEntityWithState.from(
+          this.modelMapper.mapLedger(ledgerResponse),
+          ResourceState.from(shard.getStateName(), ledgerResponse.getPagingToken())
+        )
+      )
+      .map(this::processLedger)
+      .transform(this::coalesce)
+      .concatMap(this::publishEntities, this.pipelineSettings.getPublishQueueSize())
+      .transform(batchSize::buffer)
+      .doOnNext(
+        batchSize.publisher(
+          blocks -> this.apiClient.publishWithState("/blocks", blocks)
+        )
+      )
+      .retryWhen(this.errorsHandler::onError)
+      .then()
+      .doOnSuccess(ignored -> LOG.info("Backfill of {} completed", shard));
+  }
+
+  private Flux<LedgerResponse> fetchShardLedgers(LedgerShard shard) {
+    // Each shard resumes from its own checkpoint, so that a restarted backfill only fetches the
+    // ledgers which have not been published yet.
+    final String cursorPointer = this.stateStorage.getStateToken(
+        shard.getStateName(),
+        shard::getInitialPagingToken
+    );
+
+    LOG.info("Backfilling {} from cursor {}", shard, cursorPointer);
+
+    return Flux
+      .<List<LedgerResponse>, String>generate(
+        () -> cursorPointer,
+        (cursor, sink) -> {
+          final long remaining = shard.getEnd() - (Long.parseLong(cursor) >>> 32);
+          this.updateBackfillLag(shard, remaining);
+          if (remaining <= 0) {
+            sink.complete();
+            return cursor;
+          }
+
+          try {
+            LedgersRequestBuilder builder = this.server.horizonServer().ledgers();
+            builder.cursor(cursor);
+            builder.order(RequestBuilder.Order.ASC);
+            builder.limit((int) Math.min(HorizonServer.HORIZON_PER_REQUEST_LIMIT, remaining));
+
+            List<LedgerResponse> records = builder.execute().getRecords();
+
+            Metrics.count("ledgers.backfill", records.size());
+
+            if (records.isEmpty()) {
+              sink.complete();
+              return cursor;
+            }
+
+            sink.next(records);
+            return records.get(records.size() - 1).getPagingToken();
+          } catch (IOException ioe) {
+            sink.error(ioe);
+            return cursor;
+          }
         }
+      )
+      .flatMapIterable(Function.identity())
+      .takeWhile(ledgerResponse -> ledgerResponse.getSequence() <= shard.getEnd());
+  }
 
-        final long timeEnrichTransactions = System.currentTimeMillis();
-        for (final TransactionResponse transactionResponse : responses) {
-          final Transaction transaction = this.enrichTransaction(
-              transactionResponse,
-              effectLookup,
-              operations.getOrDefault(transactionResponse.getHash(), Collections.emptyList())
-          );
-          transactions.add(transaction);
-          addresses.addAll(this.collectAddresses(transaction.getFunctionCalls()));
+  private ProcessedLedger processLedger(BlockchainEntityWithState<Block> block) {
+    Metrics.count("blocks", 1);
+
+    @SuppressWarnings("checkstyle:VariableDeclarationUsageDistance")
+    long timeLedger = System.nanoTime();
+
+    final long ledger = block.getEntity().getNumber().longValue();
+
+    List<Transaction> transactions = new ArrayList<>();
+    Set<Address>      addresses    = new HashSet<>();
+    Set<Asset>        assets       = new HashSet<>();
+
+    try {
+      // The three requests are independent, issue them at the same time. Transactions are
+      // enriched page by page as they arrive, once effects and operations are available, so the
+      // latency of a ledger is the one of its slowest request.
+      final long timeFetch = System.nanoTime();
+      final CompletableFuture<Tuple2<Map<Long, String>, List<OperationResponse>>> future =
+          Mono
+            .zip(
+              this.fetchAsync(GET_EFFECTS,    () -> this.fetchEffectsForLedger(ledger)),
+              this.fetchAsync(GET_OPERATIONS, () -> this.fetchOperationsForLedger(ledger))
+            )
+            .toFuture();
+
+      // The ledger data is fetched once the transactions, effects and operations all are.
+      final AtomicInteger pendingFetches = new AtomicInteger(2);
+      final Runnable      fetched        = () -> {
+        if (pendingFetches.decrementAndGet() == 0) {
+          this.logPerformance(FETCH_LEDGER_DATA, timeFetch);
         }
-        assets.addAll(this.collectAssets(operationResponses, ledger));
-        this.logPerformance("enrichTransactions", timeEnrichTransactions);
-      } catch (IOException ioe) {
-        LOG.error("Unable to fetch information about transactions for ledger " + ledger, ioe);
-        Metrics.count("ledger.errors", 1);
-      }
+      };
+      future.thenRun(fetched);
+
+      final Mono<Tuple3<Map<Long, String>, Map<String, List<OperationResponse>>,
+          List<OperationResponse>>> data = Mono
+            .fromFuture(future)
+            .map(
+              tuple -> Tuples.of(
+                tuple.getT1(),
+                StellarSubscriberConfiguration.groupByTransaction(tuple.getT2()),
+                tuple.getT2()
+              )
+            )
+            .cache();
+
+      final long timeEnrichTransactions = System.nanoTime();
+      transactions.addAll(
+          this.streamTransactionsForLedger(ledger)
+            .doOnComplete(
+              () -> {
+                this.logPerformance(GET_TRANSACTIONS, timeFetch);
+                fetched.run();
+              }
+            )
+            .concatMap(
+              transactionResponse -> data.map(
+                tuple -> this.enrichTransaction(
+                  transactionResponse,
+                  tuple.getT1(),
+                  tuple.getT2().getOrDefault(
+                    transactionResponse.getHash(),
+                    Collections.emptyList()
+                  )
+                )
+              )
+            )
+            .collectList()
+            .block()
+      );
+      this.logPerformance(ENRICH_TRANSACTIONS, timeEnrichTransactions);
 
-      final long timePublish = System.currentTimeMillis();
-      if (!addresses.isEmpty()) {
-        this.apiClient.publish("/addresses", new ArrayList<>(addresses));
-      }
+      final List<OperationResponse> operationResponses = data.block().getT3();
+
+      assets.addAll(this.collectAssets(operationResponses, ledger));
 
-      if (!assets.isEmpty()) {
-        this.apiClient.publish("/assets", new ArrayList<>(assets));
+      final long timeCollectAddresses = System.nanoTime();
+      addresses.addAll(this.collectAddresses(transactions));
+      this.logPerformance(COLLECT_ADDRESSES, timeCollectAddresses);
+    } catch (RuntimeException e) {
+      if (!(Exceptions.unwrap(e) instanceof IOException)) {
+        throw e;
       }
+      LOG.error(
+          "Unable to fetch information about transactions for ledger " + ledger,
+          Exceptions.unwrap(e)
+      );
+      Metrics.count("ledger.errors", 1);
+    }
+
+    this.enrichBlock(block, transactions);
 
-      if (!transactions.isEmpty()) {
-        this.apiClient.publish("/transactions", transactions);
+    return new ProcessedLedger(block, transactions, addresses, assets, timeLedger);
+  }
+
+  /**
+   * Groups consecutive ledgers until their entities fill a chunk, their estimated size reaches
+   * the maximum payload size, or the maximum latency elapses since the first ledger of the group.
+   */
+  private Flux<List<ProcessedLedger>> coalesce(Flux<ProcessedLedger> ledgers) {
+    return Flux.defer(
+      () -> {
+        final DirectProcessor<ProcessedLedger> deadlines    = DirectProcessor.create();
+        final FluxSink<ProcessedLedger>        deadlineSink = deadlines.sink();
+        final LedgerBatch                      batch        = new LedgerBatch(
+            this.batchSettings.transactionsInChunk(),
+            this.batchSettings.addressesInChunk(),
+            this.batchSettings.assetsInChunk(),
+            this.pipelineSettings.getCoalesceMaxBytes(),
+            // The deadline of a batch is armed when its first ledger enters it.
+            deadline -> Mono
+              .delay(this.pipelineSettings.getCoalesceMaxLatency())
+              .subscribe(tick -> deadlineSink.next(deadline))
+        );
+
+        return ledgers
+          .publish(
+            shared -> Flux.merge(
+              shared,
+              deadlines.takeUntilOther(shared.then())
+            )
+          )
+          .bufferUntil(batch::add)
+          .map(
+            buffer -> {
+              buffer.removeIf(ProcessedLedger::isDeadline);
+              return buffer;
+            }
+          )
+          .filter(buffer -> !buffer.isEmpty())
+          .doFinally(signal -> batch.disarm());
       }
-      this.logPerformance("publish", timePublish);
+    );
+  }
 
-      this.enrichBlock(block, transactions);
-      this.logPerformance("ledger", timeLedger);
+  /**
+   * Publishes the transactions, addresses and assets of the ledgers, then emits their blocks.
+   *
+   * <p>Ordering contract: the entities of a ledger are always published before its block, and
+   * only the block carries the cursor of the pipeline. Delivery is therefore at least once: when
+   * publishing a block fails, the pipeline resumes from the last stored cursor and publishes the
+   * entities of the following ledgers again. The inbound API stores entities by their natural key
+   * (transaction hash, account address, asset code and issuer), so re-publishing them is
+   * idempotent.
+   */
+  private Flux<BlockchainEntityWithState<Block>> publishEntities(List<ProcessedLedger> ledgers) {
+    final long timePublish = System.nanoTime();
+
+    final List<Transaction> transactions = new ArrayList<>();
+    final Set<Address>      addresses    = new LinkedHashSet<>();
+    final Set<Asset>        assets       = new LinkedHashSet<>();
+    for (ProcessedLedger ledger : ledgers) {
+      transactions.addAll(ledger.transactions);
+      addresses.addAll(ledger.addresses);
+      assets.addAll(ledger.assets);
     }
 
-    long timePublishLedgers = System.currentTimeMillis();
-    this.apiClient.publishWithState("/blocks", blocks);
-    this.logPerformance("publishLedgers", timePublishLedgers);
+    Metrics.count("ledger.coalesced", ledgers.size());
+
+    return Mono
+      .when(
+        this.publishAsync("/addresses",    new ArrayList<>(addresses)),
+        this.publishAsync("/assets",       new ArrayList<>(assets)),
+        this.publishAsync("/transactions", transactions)
+      )
+      .thenMany(
+        Flux.defer(
+          () -> {
+            this.logPerformance(PUBLISH, timePublish);
+
+            List<BlockchainEntityWithState<Block>> blocks = new ArrayList<>();
+            for (ProcessedLedger ledger : ledgers) {
+              this.logPerformance(LEDGER, ledger.startTime);
+              blocks.add(ledger.block);
+            }
+            return Flux.fromIterable(blocks);
+          }
+        )
+      );
+  }
+
+  private Mono<Void> publishAsync(String endpoint, List<?> entities) {
+    if (entities.isEmpty()) {
+      return Mono.empty();
+    }
+
+    return Mono
+      .fromRunnable(() -> this.apiClient.publish(endpoint, entities))
+      .subscribeOn(this.schedulers.publish())
+      .then();
+  }
+
+  private void publishLedgers(List<BlockchainEntityWithState<Block>> blocks) {
+    long maxSequence = 0;
+    for (BlockchainEntityWithState<Block> block : blocks) {
+      maxSequence = Math.max(maxSequence, block.getEntity().getNumber().longValue());
+    }
 
-    this.logPerformance("ledgers", timeLedgers);
+    long timePublishLedgers = System.nanoTime();
+    this.apiClient.publishWithState("/blocks", blocks);
+    this.logPerformance(PUBLISH_LEDGERS, timePublishLedgers);
 
     if (this.historicalManager.getLastLedger() != null) {
       if (maxSequence > this.historicalManager.getLastLedger()) {
@@ -394,17 +853,57 @@ public class StellarSubscriberConfiguration {
     );
   }
 
+  private <T> Mono<T> fetchAsync(Histogram metric, Callable<T> fetcher) {
+    return Mono
+      .fromCallable(
+        () -> {
+          final long startTime = System.nanoTime();
+          final T result = fetcher.call();
+          this.logPerformance(metric, startTime);
+          return result;
+        }
+      )
+      .subscribeOn(this.schedulers.io());
+  }
+
+  private Flux<TransactionResponse> streamTransactionsForLedger(long ledger) {
+    return Flux.defer(
+      () -> {
+        try {
+          return StellarSubscriberConfiguration.streamObjects(
+            this.server,
+            this.server.horizonServer()
+              .transactions()
+              .forLedger(ledger)
+              .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+              .execute(),
+            "ledger.transactions",
+            this.schedulers.io(),
+            this.schedulers.cpu()
+          );
+        } catch (IOException ioe) {
+          return Flux.error(ioe);
+        }
+      }
+    );
+  }
+
+  private static Map<String, List<OperationResponse>> groupByTransaction(
+      List<OperationResponse> operationResponses
+  ) {
+    final Map<String, List<OperationResponse>> operations = new HashMap<>();
+    for (final OperationResponse operationResponse : operationResponses) {
+      String transactionHash = operationResponse.getTransactionHash();
+      operations
+          .computeIfAbsent(transactionHash, k -> new ArrayList<>())
+          .add(operationResponse);
+    }
+    return operations;
+  }
+
   private List<OperationResponse> fetchOperationsForLedger(long ledger) {
     try {
-      return StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .operations()
-          .forLedger(ledger)
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-        "ledger.operations"
-      );
+      return this.operationsCache.forLedger(ledger);
     } catch (IOException | FormatException e) {
       LOG.error(
           "Unable to fetch information about operations for ledger " + ledger,
@@ -415,33 +914,40 @@ public class StellarSubscriberConfiguration {
     }
   }
 
-  private Collection<Address> collectAddresses(List<FunctionCall> functionCalls) {
-    Map<String, Address> addresses = new HashMap<>();
+  private Collection<Address> collectAddresses(List<Transaction> transactions) {
+    // An account is usually involved in several transactions of a ledger, resolve each distinct
+    // account only once per ledger.
+    Map<String, Long> accounts = new LinkedHashMap<>();
 
     // TODO: report account balances properly to the inbound API
 
-    for (FunctionCall functionCall : functionCalls) {
-      final String from = functionCall.getFrom();
-      final String to = functionCall.getTo();
+    for (Transaction transaction : transactions) {
+      for (FunctionCall functionCall : transaction.getFunctionCalls()) {
+        final String from = functionCall.getFrom();
+        final String to = functionCall.getTo();
 
-      if (from != null && !from.isEmpty() && !addresses.containsKey(from)) {
-        AccountResponse accountResponse = this.server.fetchAccountDetails(from);
-        if (accountResponse != null) {
-          addresses.put(
-              from, this.modelMapper.mapAccount(accountResponse, functionCall.getTimestamp()));
+        if (from != null && !from.isEmpty()) {
+          accounts.putIfAbsent(from, functionCall.getTimestamp());
         }
-      }
 
-      if (to != null && !to.isEmpty() && !addresses.containsKey(to)) {
-        AccountResponse accountResponse = this.server.fetchAccountDetails(to);
-        if (accountResponse != null) {
-          addresses.put(
-              to, this.modelMapper.mapAccount(accountResponse, functionCall.getTimestamp()));
+        if (to != null && !to.isEmpty()) {
+          accounts.putIfAbsent(to, functionCall.getTimestamp());
         }
       }
     }
 
-    return addresses.values();
+    Metrics.count("ledger.accounts", accounts.size());
+
+    return Flux
+      .fromIterable(accounts.entrySet())
+      .flatMap(
+        account -> this.accountLoader
+          .loadMono(account.getKey())
+          .map(accountResponse -> this.modelMapper.mapAccount(accountResponse, account.getValue())),
+        this.pipelineSettings.getAccountsConcurrency()
+      )
+      .collectList()
+      .block();
   }
 
   private List<Asset> collectAssets(List<OperationResponse> operationResponses, Long ledger) {
@@ -473,43 +979,144 @@ public class StellarSubscriberConfiguration {
     }
   }
 
-  private <T> void logPerformance(String metric, long startTime) {
-    final long duration = System.currentTimeMillis() - startTime;
-    LOG.debug("[PERFORMANCE] " + metric + " took " + duration + " ms");
-    Metrics.mean("performance." + metric.toLowerCase(), duration);
+  private void logPerformance(Histogram metric, long startTime) {
+    final long duration = metric.recordSince(startTime);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("[PERFORMANCE] {} took {} ms", metric.getName(), duration / 1_000_000);
+    }
   }
 
   private Map<Long, String> fetchEffectsForLedger(Long ledger) throws IOException {
-    List<EffectResponse> effects = StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .effects()
-          .forLedger(ledger)
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-        "ledger.operations.effects"
-    );
-
-    Map<Long, String> effectLookup = new HashMap<>();
-    for (EffectResponse effect : effects) {
-      final URL operationUri = new URL(effect.getLinks().getOperation().getHref());
-      final String[] fields = operationUri.getPath().split("/");
+    return this.effectsCache.forLedger(ledger);
+  }
 
-      if (fields.length < 2 || !fields[fields.length - 2].equals("operations")) {
-        LOG.error("unexpected operation href: {} fields: {} length: {} element: {}", operationUri, (Object)fields, fields.length, fields[fields.length - 2]);
-        throw new RuntimeException("assertion failed for operation id extraction");
+  private static class ProcessedLedger {
+    // Rough size of the serialized entities, only used to bound the size of the payloads.
+    private static final int TRANSACTION_BYTES   = 1024;
+    private static final int FUNCTION_CALL_BYTES = 512;
+    private static final int ADDRESS_BYTES       = 512;
+    private static final int ASSET_BYTES         = 256;
+
+    private final BlockchainEntityWithState<Block> block;
+    private final List<Transaction>                transactions;
+    private final Set<Address>                     addresses;
+    private final Set<Asset>                       assets;
+    private final long                             startTime;
+    private final long                             estimatedBytes;
+
+    ProcessedLedger(
+        BlockchainEntityWithState<Block> block,
+        List<Transaction>                transactions,
+        Set<Address>                     addresses,
+        Set<Asset>                       assets,
+        long                             startTime
+    ) {
+      this.block        = block;
+      this.transactions = transactions;
+      this.addresses    = addresses;
+      this.assets       = assets;
+      this.startTime    = startTime;
+
+      long bytes = (long) addresses.size() * ADDRESS_BYTES + (long) assets.size() * ASSET_BYTES;
+      for (Transaction transaction : transactions) {
+        bytes += TRANSACTION_BYTES
+          + (long) transaction.getFunctionCalls().size() * FUNCTION_CALL_BYTES;
       }
+      this.estimatedBytes = bytes;
+    }
 
-      final Long operationId = Long.parseLong(fields[fields.length - 1]);
-      String effectContents = effectLookup.getOrDefault(operationId, "");
+    /**
+     * Returns a marker of the end of the maximum latency of a batch of ledgers being coalesced.
+     */
+    static ProcessedLedger deadline() {
+      return new ProcessedLedger(
+          null,
+          Collections.emptyList(),
+          Collections.emptySet(),
+          Collections.emptySet(),
+          0L
+      );
+    }
 
-      if (!effectContents.isEmpty()) {
-        effectContents += ",";
+    boolean isDeadline() {
+      return this.block == null;
+    }
+  }
+
+  private static class LedgerBatch {
+    private final int                                   maxTransactions;
+    private final int                                   maxAddresses;
+    private final int                                   maxAssets;
+    private final long                                  maxBytes;
+    private final Function<ProcessedLedger, Disposable> arm;
+
+    private int             ledgers;
+    private int             transactions;
+    private int             addresses;
+    private int             assets;
+    private long            bytes;
+    private ProcessedLedger deadline;
+    private Disposable      timer;
+
+    LedgerBatch(
+        int                                   maxTransactions,
+        int                                   maxAddresses,
+        int                                   maxAssets,
+        long                                  maxBytes,
+        Function<ProcessedLedger, Disposable> arm
+    ) {
+      this.maxTransactions = maxTransactions;
+      this.maxAddresses    = maxAddresses;
+      this.maxAssets       = maxAssets;
+      this.maxBytes        = maxBytes;
+      this.arm             = arm;
+    }
+
+    /**
+     * Adds a ledger to the batch, returns true if the batch has to be flushed.
+     *
+     * <p>The first ledger of a batch arms its deadline, which is then added to the batch by the
+     * timer. The deadlines of batches already flushed are ignored.
+     */
+    boolean add(ProcessedLedger ledger) {
+      if (!ledger.isDeadline()) {
+        if (this.ledgers++ == 0) {
+          this.deadline = ProcessedLedger.deadline();
+          this.timer    = this.arm.apply(this.deadline);
+        }
+        this.transactions += ledger.transactions.size();
+        this.addresses    += ledger.addresses.size();
+        this.assets       += ledger.assets.size();
+        this.bytes        += ledger.estimatedBytes;
+
+        if (this.transactions < this.maxTransactions
+            && this.addresses < this.maxAddresses
+            && this.assets < this.maxAssets
+            && this.bytes < this.maxBytes) {
+          return false;
+        }
+      } else if (ledger != this.deadline) {
+        return false;
       }
-      effectContents += effect.getType();
-      effectLookup.put(operationId, effectContents);
+
+      this.disarm();
+      this.ledgers      = 0;
+      this.transactions = 0;
+      this.addresses    = 0;
+      this.assets       = 0;
+      this.bytes        = 0;
+      return true;
     }
 
-    return effectLookup;
+    /**
+     * Cancels the deadline of the current batch.
+     */
+    void disarm() {
+      if (this.timer != null) {
+        this.timer.dispose();
+      }
+      this.deadline = null;
+      this.timer    = null;
+    }
   }
 }
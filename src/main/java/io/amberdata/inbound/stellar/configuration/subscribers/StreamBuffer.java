@@ -0,0 +1,138 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+
+/**
+ * Bounded buffer between a Horizon stream and the pipeline consuming it.
+ *
+ * <p>Horizon pushes the records of a stream as soon as they are produced, regardless of the demand
+ * of the pipeline. Records are buffered until the pipeline requests them, up to the capacity of
+ * the buffer: past it the records are dropped and the pipeline fails with an overflow error, which
+ * it is expected to recover from by fetching the records it missed with pages before streaming
+ * again. The buffer only overflows when the pipeline requests records at its own pace, it must
+ * therefore be the last buffer before the pipeline. The number of buffered records is exposed as
+ * the queue depth of the stream.
+ *
+ * @param <T> the type of the records
+ */
+final class StreamBuffer<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StreamBuffer.class);
+
+  private final String          name;
+  private final int             capacity;
+  private final Metrics.Gauge   depth;
+  private final Metrics.Counter overflows;
+
+  /**
+   * Default constructor.
+   *
+   * @param name     the name of the stream
+   * @param capacity the maximum number of records buffered
+   */
+  StreamBuffer(String name, int capacity) {
+    this.name      = name;
+    this.capacity  = capacity;
+    this.depth     = Metrics.gauge(name + ".stream.queue");
+    this.overflows = Metrics.counter(name + ".stream.overflows");
+  }
+
+  /**
+   * Returns whether an error is the overflow of a buffer.
+   *
+   * @param throwable the error
+   *
+   * @return true if the error is the overflow of a buffer.
+   */
+  static boolean isOverflow(Throwable throwable) {
+    return Exceptions.isOverflow(throwable);
+  }
+
+  /**
+   * Opens the stream, when subscribed to, and buffers its records.
+   *
+   * @param subscriber    the function opening the stream to Horizon
+   * @param cursorPointer the supplier of the cursor to open the stream from
+   *
+   * @return the records of the stream.
+   */
+  Flux<T> stream(SharedStream.StreamSubscriber<T> subscriber, Supplier<String> cursorPointer) {
+    return this.buffer(StreamBuffer.open(this.name, subscriber, cursorPointer));
+  }
+
+  /**
+   * Buffers records until they are requested.
+   *
+   * @param records the records
+   *
+   * @return the buffered records.
+   */
+  Flux<T> buffer(Flux<T> records) {
+    return Flux.defer(
+      () -> {
+        final AtomicLong queued = new AtomicLong();
+
+        return records
+          .doOnNext(record -> this.depth.set(queued.incrementAndGet()))
+          .onBackpressureBuffer(this.capacity)
+          .doOnNext(record -> this.depth.set(queued.decrementAndGet()))
+          .doOnError(StreamBuffer::isOverflow, this::onOverflow)
+          .doFinally(signal -> this.depth.set(0));
+      }
+    );
+  }
+
+  /**
+   * Opens a stream, when subscribed to, without buffering its records: they are pushed as soon as
+   * they are received, regardless of the demand.
+   *
+   * @param name          the name of the stream
+   * @param subscriber    the function opening the stream to Horizon
+   * @param cursorPointer the supplier of the cursor to open the stream from
+   * @param <T>           the type of the records
+   *
+   * @return the records of the stream.
+   */
+  static <T> Flux<T> open(
+      String                           name,
+      SharedStream.StreamSubscriber<T> subscriber,
+      Supplier<String>                 cursorPointer
+  ) {
+    return Flux.push(
+      sink -> {
+        final Closeable stream = subscriber.subscribe(
+            cursorPointer.get(),
+            sink::next,
+            SubscriberErrorsHandler::handleFatalApplicationError
+        );
+        sink.onDispose(() -> StreamBuffer.close(name, stream));
+      }
+    );
+  }
+
+  private void onOverflow(Throwable throwable) {
+    LOG.warn("Buffer of {} overflowed with {} records", this.name, this.capacity);
+    this.overflows.add(1);
+  }
+
+  private static void close(String name, Closeable stream) {
+    try {
+      stream.close();
+    } catch (IOException ioe) {
+      LOG.warn("Failed to close {} stream", name, ioe);
+    }
+  }
+
+}
@@ -6,16 +6,17 @@ import io.amberdata.inbound.core.state.ResourceStateStorage;
 import io.amberdata.inbound.core.state.entities.ResourceState;
 import io.amberdata.inbound.domain.Trade;
 import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.Metrics;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
 
+import java.io.Closeable;
 import java.io.IOException;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
 
@@ -29,13 +30,12 @@ import org.springframework.context.annotation.Configuration;
 import org.stellar.sdk.requests.EventListener;
 import org.stellar.sdk.requests.RequestBuilder;
 import org.stellar.sdk.requests.TradesRequestBuilder;
-import org.stellar.sdk.responses.LedgerResponse;
 import org.stellar.sdk.responses.TradeResponse;
 import org.stellar.sdk.responses.TransactionResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.publisher.Mono;
 
 import shadow.com.google.common.base.Optional;
 import shadow.okhttp3.HttpUrl;
@@ -53,14 +53,28 @@ public class TradesSubscriberConfiguration {
   @Value("${stellar.trades.upload-history}")
   private boolean uploadHistory;
 
-  private String currentCursor;
+  @Value("${stellar.trades.enrichment-concurrency}")
+  private int enrichmentConcurrency;
+
+  @Value("${stellar.trades.streaming}")
+  private boolean streaming;
+
+  @Value("${stellar.pipeline.stream-queue-size}")
+  private int streamQueueSize;
+
+  private StreamBuffer<TradeResponse> streamBuffer;
+
+  private volatile String currentCursor;
 
   private final ResourceStateStorage    stateStorage;
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
   private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -71,6 +85,10 @@ public class TradesSubscriberConfiguration {
    * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public TradesSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
@@ -78,14 +96,25 @@ public class TradesSubscriberConfiguration {
       ModelMapper             modelMapper,
       HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
-    this.stateStorage  = stateStorage;
-    this.apiClient     = apiClient;
-    this.modelMapper   = modelMapper;
-    this.server        = server;
-    this.batchSettings = batchSettings;
-    this.errorsHandler = errorsHandler;
+    this.stateStorage    = stateStorage;
+    this.apiClient       = apiClient;
+    this.modelMapper     = modelMapper;
+    this.server          = server;
+    this.batchSize       = adaptiveBatching.forPipeline(
+      "trades",
+      batchSettings.tradesInChunk(),
+      "ledgers.trades"
+    );
+    this.errorsHandler   = errorsHandler;
+    this.sharedStreams   = sharedStreams;
+    this.operationsCache = operationsCache;
+    this.schedulers      = schedulers;
   }
 
   /**
@@ -93,53 +122,134 @@ public class TradesSubscriberConfiguration {
    */
   @PostConstruct
   public void createPipeline() {
-    LOG.info("Going to subscribe on Stellar DEX Trades stream through Ledgers stream");
+    if (this.streaming) {
+      this.createStreamingPipeline();
+    } else {
+      this.createPollingPipeline();
+    }
+  }
 
-    Flux
-        .<LedgerResponse>push(
-          sink -> subscribe(
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
+  private void createStreamingPipeline() {
+    LOG.info("Going to subscribe on Stellar DEX Trades stream");
+
+    this.streamBuffer = new StreamBuffer<>("trades", this.streamQueueSize);
+
+    this.streamTrades()
+        .flatMapSequential(
+          tradeResponse -> Mono
+            .fromCallable(() -> this.enrichRecord(tradeResponse))
+            .subscribeOn(this.schedulers.io()),
+          this.enrichmentConcurrency
         )
-        .publishOn(Schedulers.newElastic("trades-subscriber-thread"))
-        .timeout(this.errorsHandler.timeoutDuration())
-        .map(e -> toTradesStream())
-        .flatMap(Flux::fromStream)
-        .buffer(this.batchSettings.tradesInChunk())
+        .publishOn(this.schedulers.cpu())
+        .map(this::toTradeWithState)
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/trades", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/trades", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
 
-  private Stream<BlockchainEntityWithState<Trade>> toTradesStream() {
-    return this.fetchTrades()
-      .stream()
-      .map(
-        trade -> BlockchainEntityWithState.from(
-          trade,
-          ResourceState.from(Trade.class.getSimpleName(), this.currentCursor)
-        )
+  private void createPollingPipeline() {
+    LOG.info("Going to subscribe on Stellar DEX Trades stream through Ledgers stream");
+
+    this.sharedStreams.ledgers()
+        .register("trades", () -> NOW_CURSOR_POINTER)
+        .timeout(this.errorsHandler.timeoutDuration())
+        // Trades are fetched and enriched on the I/O pool without waiting on it, one ledger at
+        // a time so that each request starts from the cursor of the previous one.
+        .concatMap(ledgerResponse -> this.fetchTrades())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
+        .retryWhen(errorsHandler::onError)
+        .subscribe(
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/trades", entities)
+          ),
+          SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
 
-  private void subscribe(Consumer<LedgerResponse>    responseConsumer,
-                         Consumer<? super Throwable> errorConsumer) {
-    LOG.info("Subscribing to trades using ledger cursor {}", NOW_CURSOR_POINTER);
+  private Flux<TradeResponse> streamTrades() {
+    // The cursor is only validated when subscribing, or re-subscribing after an error. Trades
+    // missed since then are caught up with full pages before switching to the stream.
+    return Flux.defer(
+      () -> {
+        final String cursorPointer = this.resumeCursorPointer();
 
-    this.server.testConnection();
-    this.testCursorCorrectness(NOW_CURSOR_POINTER);
+        LOG.info("Subscribing to trades using cursor {}", cursorPointer);
 
-    this.server.horizonServer()
-        .ledgers()
-        .cursor(NOW_CURSOR_POINTER)
+        this.server.testConnection();
+        this.testTradesCursorCorrectness(cursorPointer);
+
+        return this.backfillAndStreamTrades(new AtomicReference<>(cursorPointer));
+      }
+    );
+  }
+
+  private Flux<TradeResponse> backfillAndStreamTrades(AtomicReference<String> lastCursor) {
+    // When the pipeline does not keep up with the stream, the stream is closed and the trades
+    // received since the last one buffered are caught up with pages again.
+    return Flux
+      .concat(
+        this.backfillTrades(lastCursor.get()),
+        this.streamBuffer
+          .stream(this::subscribeToTrades, lastCursor::get)
+          .onErrorResume(
+            StreamBuffer::isOverflow,
+            throwable -> Flux.defer(() -> this.backfillAndStreamTrades(lastCursor))
+          )
+      )
+      .doOnNext(tradeResponse -> lastCursor.set(tradeResponse.getPagingToken()));
+  }
+
+  private Flux<TradeResponse> backfillTrades(String cursorPointer) {
+    return Flux
+      .<List<TradeResponse>, String>generate(
+        () -> cursorPointer,
+        (cursor, sink) -> {
+          try {
+            List<TradeResponse> records = this.server.horizonServer()
+                .trades()
+                .cursor(cursor)
+                .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
+                .execute()
+                .getRecords();
+
+            Metrics.count("trades.backfill", records.size());
+
+            if (!records.isEmpty()) {
+              sink.next(records);
+            }
+            if (records.size() < HorizonServer.HORIZON_PER_REQUEST_LIMIT) {
+              sink.complete();
+            }
+
+            return records.isEmpty() ? cursor : records.get(records.size() - 1).getPagingToken();
+          } catch (IOException ioe) {
+            sink.error(ioe);
+            return cursor;
+          }
+        }
+      )
+      .flatMapIterable(Function.identity());
+  }
+
+  private Closeable subscribeToTrades(String                      cursorPointer,
+                                      Consumer<TradeResponse>     responseConsumer,
+                                      Consumer<? super Throwable> errorConsumer) {
+    return this.server.horizonServer()
+        .trades()
+        .cursor(cursorPointer)
         .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-        .stream(new EventListener<LedgerResponse>() {
+        .stream(new EventListener<TradeResponse>() {
           @Override
-          public void onEvent(LedgerResponse ledgerResponse) {
-            responseConsumer.accept(ledgerResponse);
+          public void onEvent(TradeResponse tradeResponse) {
+            responseConsumer.accept(tradeResponse);
           }
 
           @Override
@@ -151,7 +261,36 @@ public class TradesSubscriberConfiguration {
         });
   }
 
-  private List<Trade> fetchTrades() {
+  private String resumeCursorPointer() {
+    if (this.currentCursor == null) {
+      this.currentCursor = this.getCursorPointer();
+      return this.currentCursor;
+    }
+
+    // Resume after the last published trade.
+    return this.stateStorage.getStateToken(Trade.class.getSimpleName(), () -> this.currentCursor);
+  }
+
+  private BlockchainEntityWithState<Trade> toTradeWithState(ExtendedTradeResponse tradeResponse) {
+    final String pagingToken = tradeResponse.getTradeResponse().getPagingToken();
+
+    this.currentCursor = pagingToken;
+
+    return BlockchainEntityWithState.from(
+      this.modelMapper.mapTrade(tradeResponse),
+      ResourceState.from(Trade.class.getSimpleName(), pagingToken)
+    );
+  }
+
+  private Flux<BlockchainEntityWithState<Trade>> fetchTrades() {
+    return Mono
+      .fromCallable(this::fetchTradeRecords)
+      .subscribeOn(this.schedulers.io())
+      .flatMapMany(this::enrichRecords)
+      .map(this::toTradeWithState);
+  }
+
+  private List<TradeResponse> fetchTradeRecords() {
     if (currentCursor == null) {
       this.currentCursor = this.getCursorPointer();
     }
@@ -165,32 +304,55 @@ public class TradesSubscriberConfiguration {
         .limit(this.tradesLimit);
 
     try {
-      List<TradeResponse> records = StellarSubscriberConfiguration.getObjects(
+      // Each trade is stored with its own paging token, so that a partially published batch
+      // resumes right after its last published trade.
+      return StellarSubscriberConfiguration.getObjects(
           this.server,
           requestBuilder.execute(),
           "trades"
       );
-      if (records.isEmpty()) {
-        return Collections.emptyList();
-      }
-
-      List<ExtendedTradeResponse> enrichedRecords = this.enrichRecords(records);
-
-      this.currentCursor = records.get(records.size() - 1).getPagingToken();
-      return this.modelMapper.mapTrades(enrichedRecords);
     } catch (IOException ioe) {
       throw new HorizonServer.IncorrectRequestException("Failed to get trades", ioe);
     }
   }
 
-  private List<ExtendedTradeResponse> enrichRecords(List<TradeResponse> records) {
-    return records
-      .stream()
-      .map(this::enrichRecord)
-      .collect(Collectors.toList());
+  private Flux<ExtendedTradeResponse> enrichRecords(List<TradeResponse> records) {
+    // Trades are enriched concurrently but kept in paging token order, so that the cursor stored
+    // with them never runs ahead of a trade which has not been published yet.
+    return Flux
+      .fromIterable(records)
+      .flatMapSequential(
+        record -> Mono
+          .fromCallable(() -> this.enrichRecord(record))
+          .subscribeOn(this.schedulers.io()),
+        this.enrichmentConcurrency
+      );
   }
 
   private ExtendedTradeResponse enrichRecord(TradeResponse tradeResponse) {
+    try {
+      // Trade paging tokens are made of the ID of the operation which created the trade followed
+      // by the index of the trade in that operation.
+      final long operationId = Long.parseLong(tradeResponse.getPagingToken().split("-")[0]);
+
+      final OperationResponse operationResponse = this.operationsCache.forOperation(operationId);
+      if (operationResponse != null) {
+        return ExtendedTradeResponse.from(
+          tradeResponse,
+          LedgerOperationsCache.ledgerOf(operationId),
+          operationResponse.getTransactionHash(),
+          operationResponse.getId().toString()
+        );
+      }
+    } catch (Exception e) {
+      LOG.warn("Failed to find the operation of trade: " + tradeResponse.getId(), e);
+    }
+
+    Metrics.count("trades.enrichment.fallback", 1);
+    return this.enrichRecordFromOperation(tradeResponse);
+  }
+
+  private ExtendedTradeResponse enrichRecordFromOperation(TradeResponse tradeResponse) {
     Long   ledger          = 0L;
     String transactionHash = "";
     String operationHash   = "";
@@ -268,17 +430,6 @@ public class TradesSubscriberConfiguration {
     }
   }
 
-  private void testCursorCorrectness(String cursorPointer) {
-    try {
-      this.server.horizonServer().ledgers().cursor(cursorPointer).limit(1).execute();
-    } catch (IOException ioe) {
-      throw new HorizonServer.IncorrectRequestException(
-          "Failed to test if cursor value is valid",
-          ioe
-      );
-    }
-  }
-
   private void testTradesCursorCorrectness(String cursorPointer) {
     try {
       (this.server.horizonServer().trades().cursor(cursorPointer).limit(1)).execute();
@@ -4,7 +4,7 @@ import io.amberdata.inbound.core.client.BlockchainEntityWithState;
 import io.amberdata.inbound.core.client.InboundApiClient;
 import io.amberdata.inbound.core.state.ResourceStateStorage;
 import io.amberdata.inbound.domain.Transaction;
-import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.Metrics;
 import io.amberdata.inbound.stellar.configuration.history.HistoricalManager;
 import io.amberdata.inbound.stellar.configuration.properties.BatchSettings;
 import io.amberdata.inbound.stellar.mapper.ModelMapper;
@@ -13,7 +13,7 @@ import java.io.IOException;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
@@ -24,15 +24,9 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 
 import org.stellar.sdk.FormatException;
-import org.stellar.sdk.requests.EventListener;
 import org.stellar.sdk.responses.TransactionResponse;
 import org.stellar.sdk.responses.operations.OperationResponse;
 
-import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
-import shadow.com.google.common.base.Optional;
-
 @Configuration
 @ConditionalOnProperty(prefix = "stellar", name = "subscribe-on-transactions")
 public class TransactionsSubscriberConfiguration {
@@ -45,9 +39,12 @@ public class TransactionsSubscriberConfiguration {
   private final InboundApiClient        apiClient;
   private final ModelMapper             modelMapper;
   private final HistoricalManager       historicalManager;
-  private final HorizonServer           server;
-  private final BatchSettings           batchSettings;
+  private final AdaptiveBatchSize       batchSize;
   private final SubscriberErrorsHandler errorsHandler;
+  private final SharedStreams           sharedStreams;
+  private final LedgerOperationsCache   operationsCache;
+  private final LedgerEffectsCache      effectsCache;
+  private final PipelineSchedulers      schedulers;
 
   /**
    * Default constrcutor.
@@ -56,26 +53,41 @@ public class TransactionsSubscriberConfiguration {
    * @param apiClient         the client api
    * @param modelMapper       the model mapper
    * @param historicalManager the historical manager
-   * @param server            the Horizon server
    * @param batchSettings     the batch settings
    * @param errorsHandler     the error handler
+   * @param sharedStreams     the shared Horizon streams
+   * @param operationsCache   the ledger operations cache
+   * @param effectsCache      the ledger effects cache
+   * @param adaptiveBatching  the adaptive batching
+   * @param schedulers        the pipeline schedulers
    */
   public TransactionsSubscriberConfiguration(
       ResourceStateStorage    stateStorage,
       InboundApiClient        apiClient,
       ModelMapper             modelMapper,
       HistoricalManager       historicalManager,
-      HorizonServer           server,
       BatchSettings           batchSettings,
-      SubscriberErrorsHandler errorsHandler
+      SubscriberErrorsHandler errorsHandler,
+      SharedStreams           sharedStreams,
+      LedgerOperationsCache   operationsCache,
+      LedgerEffectsCache      effectsCache,
+      AdaptiveBatching        adaptiveBatching,
+      PipelineSchedulers      schedulers
   ) {
     this.stateStorage      = stateStorage;
     this.apiClient         = apiClient;
     this.modelMapper       = modelMapper;
     this.historicalManager = historicalManager;
-    this.server            = server;
-    this.batchSettings     = batchSettings;
+    this.batchSize         = adaptiveBatching.forPipeline(
+      "transactions",
+      batchSettings.transactionsInChunk(),
+      "transactions.transactions"
+    );
     this.errorsHandler     = errorsHandler;
+    this.sharedStreams     = sharedStreams;
+    this.operationsCache   = operationsCache;
+    this.effectsCache      = effectsCache;
+    this.schedulers        = schedulers;
   }
 
   /**
@@ -85,45 +97,62 @@ public class TransactionsSubscriberConfiguration {
   public void createPipeline() {
     LOG.info("Going to subscribe on Stellar Transactions stream");
 
-    Flux
-        .<TransactionResponse>push(
-          sink -> subscribe(
-            sink::next,
-            SubscriberErrorsHandler::handleFatalApplicationError
-          )
-        )
-        .publishOn(Schedulers.newElastic("transactions-subscriber-thread"))
+    this.sharedStreams.transactions()
+        .register("transactions", this::getCursorPointer)
+        .publishOn(this.schedulers.io())
         .timeout(this.errorsHandler.timeoutDuration())
+        .map(this::fetchTransactionData)
+        .publishOn(this.schedulers.cpu())
         .map(this::enrichTransaction)
-        .buffer(this.batchSettings.transactionsInChunk())
+        .transform(this.batchSize::buffer)
+        .publishOn(this.schedulers.publish(), PipelineSchedulers.PUBLISH_PREFETCH)
         .retryWhen(errorsHandler::onError)
         .subscribe(
-          entities -> this.apiClient.publishWithState("/transactions", entities),
+          this.batchSize.publisher(
+            entities -> this.apiClient.publishWithState("/transactions", entities)
+          ),
           SubscriberErrorsHandler::handleFatalApplicationError
       );
   }
 
-  private BlockchainEntityWithState<Transaction> enrichTransaction(
-      TransactionResponse transactionResponse
-  ) {
+  private TransactionData fetchTransactionData(TransactionResponse transactionResponse) {
     List<OperationResponse> operationResponses =
         this.fetchOperationsForTransaction(transactionResponse);
-    return this.modelMapper.mapTransactionWithState(transactionResponse, operationResponses);
+    return new TransactionData(
+      transactionResponse,
+      this.fetchEffectsForTransaction(transactionResponse),
+      operationResponses
+    );
+  }
+
+  private BlockchainEntityWithState<Transaction> enrichTransaction(TransactionData data) {
+    return this.modelMapper.mapTransactionWithState(
+      data.transactionResponse,
+      data.effectLookup,
+      data.operationResponses
+    );
+  }
+
+  private Map<Long, String> fetchEffectsForTransaction(TransactionResponse transactionResponse) {
+    try {
+      return this.effectsCache.forTransaction(transactionResponse);
+    } catch (IOException | FormatException e) {
+      LOG.error(
+          "Unable to fetch information about effects for transaction: "
+          + transactionResponse.getHash()
+          + ", falling back to fetching them per operation",
+          e
+      );
+      Metrics.count("transaction.effects.errors", 1);
+      return null;
+    }
   }
 
   private List<OperationResponse> fetchOperationsForTransaction(
       TransactionResponse transactionResponse
   ) {
     try {
-      return StellarSubscriberConfiguration.getObjects(
-        this.server,
-        this.server.horizonServer()
-          .operations()
-          .forTransaction(transactionResponse.getHash())
-          .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-          .execute(),
-          "transaction.operations"
-        );
+      return this.operationsCache.forTransaction(transactionResponse);
     } catch (IOException | FormatException e) {
       LOG.error(
           "Unable to fetch information about operations for transaction: "
@@ -134,34 +163,6 @@ public class TransactionsSubscriberConfiguration {
     }
   }
 
-  private void subscribe(Consumer<TransactionResponse> responseConsumer,
-                         Consumer<? super Throwable>   errorConsumer) {
-    String cursorPointer = this.getCursorPointer();
-
-    LOG.info("Subscribing to transactions using cursor {}", cursorPointer);
-
-    this.server.testConnection();
-    this.testCursorCorrectness(cursorPointer);
-
-    this.server.horizonServer()
-        .transactions()
-        .cursor(cursorPointer)
-        .limit(HorizonServer.HORIZON_PER_REQUEST_LIMIT)
-        .stream(new EventListener<TransactionResponse>() {
-          @Override
-          public void onEvent(TransactionResponse transactionResponse) {
-            responseConsumer.accept(transactionResponse);
-          }
-
-          @Override
-          public void onFailure(Optional<Throwable> optional, Optional<Integer> optional1) {
-            if (optional.isPresent()) {
-              errorConsumer.accept(optional.get());
-            }
-          }
-        });
-  }
-
   private String getCursorPointer() {
     if (this.historicalManager.disabled()) {
       return this.stateStorage.getStateToken(Transaction.class.getSimpleName(), () -> "now");
@@ -170,11 +171,23 @@ public class TransactionsSubscriberConfiguration {
     }
   }
 
-  private void testCursorCorrectness(String cursorPointer) {
-    try {
-      this.server.horizonServer().transactions().cursor(cursorPointer).limit(1).execute();
-    } catch (IOException ioe) {
-      throw new RuntimeException("Failed to test if cursor value is valid", ioe);
+  /**
+   * Transaction fetched from Horizon along with its effects and operations, the effects being
+   * null when they could not be fetched.
+   */
+  private static class TransactionData {
+    private final TransactionResponse     transactionResponse;
+    private final Map<Long, String>       effectLookup;
+    private final List<OperationResponse> operationResponses;
+
+    TransactionData(
+        TransactionResponse     transactionResponse,
+        Map<Long, String>       effectLookup,
+        List<OperationResponse> operationResponses
+    ) {
+      this.transactionResponse = transactionResponse;
+      this.effectLookup        = effectLookup;
+      this.operationResponses  = operationResponses;
     }
   }
 
@@ -168,16 +168,18 @@ public class ModelMapper {
    * Extracts transaction from the server response.
    *
    * @param transactionResponse the record from the server
+   * @param effectLookup        a pre-computed mapping of operation IDs to their effects
    * @param operationResponses  the operations associated to the transaction
    *
    * @return the extracted transaction.
    */
   public BlockchainEntityWithState<Transaction> mapTransactionWithState(
       TransactionResponse     transactionResponse,
+      Map<Long, String>       effectLookup,
       List<OperationResponse> operationResponses
   ) {
     return BlockchainEntityWithState.from(
-      this.mapTransaction(transactionResponse, null, operationResponses),
+      this.mapTransaction(transactionResponse, effectLookup, operationResponses),
       ResourceState.from(Transaction.class.getSimpleName(), transactionResponse.getPagingToken())
     );
   }
@@ -412,8 +414,15 @@ public class ModelMapper {
     return optionalProperties;
   }
 
+  /**
+   * Extracts a trade from the server response.
+   *
+   * @param extendedTradeResponse the record from the server
+   *
+   * @return the extracted trade.
+   */
   @SuppressWarnings("checkstyle:MethodParamPad")
-  private Trade mapTrade(ExtendedTradeResponse extendedTradeResponse) {
+  public Trade mapTrade(ExtendedTradeResponse extendedTradeResponse) {
     TradeResponse tradeResponse = extendedTradeResponse.getTradeResponse();
 
     String baseAccount = tradeResponse.getBaseAccount() != null
@@ -2,7 +2,7 @@ package io.amberdata.inbound.stellar.mapper.operations;
 
 import io.amberdata.inbound.domain.Asset;
 import io.amberdata.inbound.domain.FunctionCall;
-import io.amberdata.inbound.stellar.client.HorizonServer;
+import io.amberdata.inbound.stellar.client.AccountLoader;
 
 import java.math.BigDecimal;
 
@@ -21,10 +21,10 @@ public class AccountMergeOperationMapper implements OperationMapper {
 
   private static final Logger LOG = LoggerFactory.getLogger(AccountMergeOperationMapper.class);
 
-  private final HorizonServer server;
+  private final AccountLoader accountLoader;
 
-  public AccountMergeOperationMapper(HorizonServer server) {
-    this.server = server;
+  public AccountMergeOperationMapper(AccountLoader accountLoader) {
+    this.accountLoader = accountLoader;
   }
 
   @Override
@@ -43,7 +43,7 @@ public class AccountMergeOperationMapper implements OperationMapper {
     }
 
     BigDecimal lumensTransferred = BigDecimal.ZERO;
-    final AccountResponse accountResponse = this.server.fetchAccountDetails(from);
+    final AccountResponse accountResponse = this.accountLoader.loadBlocking(from);
 
     if (accountResponse != null) {
       for (AccountResponse.Balance balance : accountResponse.getBalances()) {
@@ -2,6 +2,7 @@ package io.amberdata.inbound.stellar.mapper.operations;
 
 import io.amberdata.inbound.domain.Asset;
 import io.amberdata.inbound.domain.FunctionCall;
+import io.amberdata.inbound.stellar.client.AccountLoader;
 import io.amberdata.inbound.stellar.client.HorizonServer;
 import io.amberdata.inbound.stellar.client.Metrics;
 import io.amberdata.inbound.stellar.mapper.AssetMapper;
@@ -48,13 +49,18 @@ public class OperationMapperManager {
   /**
    * Default constructor.
    *
-   * @param assetMapper the asset mapper
-   * @param server      the Horizon server
+   * @param assetMapper   the asset mapper
+   * @param server        the Horizon server
+   * @param accountLoader the account loader
    */
   @Autowired
-  public OperationMapperManager(AssetMapper assetMapper, HorizonServer server) {
+  public OperationMapperManager(
+      AssetMapper   assetMapper,
+      HorizonServer server,
+      AccountLoader accountLoader
+  ) {
     this.responsesMap = new HashMap<>();
-    this.add(AccountMergeOperationResponse.class,  new AccountMergeOperationMapper(server));
+    this.add(AccountMergeOperationResponse.class,  new AccountMergeOperationMapper(accountLoader));
     this.add(AllowTrustOperationResponse.class,    new AllowTrustOperationMapper(assetMapper));
     this.add(BumpSequenceOperationResponse.class,  new BumpSequenceOperationMapper());
     this.add(ChangeTrustOperationResponse.class,   new ChangeTrustOperationMapper(assetMapper));
@@ -112,7 +118,8 @@ public class OperationMapperManager {
    * Extracts the function call from the specified operation.
    *
    * @param operationResponse the operation response
-   * @param effectLookup      a pre-computed mapping of operation IDs to their effects
+   * @param effectLookup      a pre-computed mapping of operation IDs to their effects, or null to
+   *                          fetch the effects of the operation on its own
    * @param ledger            the ledger number
    * @param index             the index of the function call
    *
@@ -151,6 +158,8 @@ public class OperationMapperManager {
       // If an id is not present in the map then there was no effect of that operation.
       effects = effectLookup.getOrDefault(id, "");
     } else {
+      // Fallback only, costs a request per operation.
+      Metrics.count("operation.effects.fallback", 1);
       effects = String.join(",", this.fetchEffectsForOperation(operationResponse));
     }
 
@@ -0,0 +1,71 @@
+package io.amberdata.inbound.stellar.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.stellar.sdk.KeyPair;
+
+public class AccountBloomFilterTest {
+
+  @Test
+  public void reportsAccountsAlreadyAdded() {
+    final AccountBloomFilter filter = new AccountBloomFilter(1024 * 1024, 0.01);
+    final String accountId = KeyPair.random().getAccountId();
+
+    assertTrue(filter.add(accountId));
+    assertFalse(filter.add(accountId));
+    assertEquals(1, filter.size());
+  }
+
+  @Test
+  public void keepsFalsePositivesBelowTheExpectedRate() {
+    final AccountBloomFilter filter = new AccountBloomFilter(1024 * 1024, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.add(KeyPair.random().getAccountId());
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (!filter.add(KeyPair.random().getAccountId())) {
+        falsePositives++;
+      }
+    }
+
+    assertTrue("false positives: " + falsePositives, falsePositives < 100);
+  }
+
+  @Test
+  public void rotatesGenerationsWithinTheMemoryCeiling() {
+    final long maxBytes = 64;
+    final AccountBloomFilter filter = new AccountBloomFilter(maxBytes, 0.01);
+
+    for (int i = 0; i < 1000; i++) {
+      filter.add("account-" + i);
+      assertTrue(filter.sizeInBytes() <= maxBytes);
+    }
+
+    // Only the accounts of the most recent generations are remembered, the oldest ones have been
+    // dropped along with their generation.
+    assertTrue(filter.size() < 1000);
+
+    int forgotten = 0;
+    for (int i = 0; i < 20; i++) {
+      if (filter.add("account-" + i)) {
+        forgotten++;
+      }
+    }
+    assertTrue("forgotten: " + forgotten, forgotten >= 15);
+  }
+
+  @Test
+  public void acceptsIdentifiersWhichAreNotAccountIds() {
+    final AccountBloomFilter filter = new AccountBloomFilter(1024, 0.01);
+
+    assertTrue(filter.add("not-an-account"));
+    assertFalse(filter.add("not-an-account"));
+  }
+
+}
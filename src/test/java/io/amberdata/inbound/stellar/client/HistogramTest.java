@@ -0,0 +1,72 @@
+package io.amberdata.inbound.stellar.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void keepsSmallValuesInTheirOwnBucket() {
+    for (int value = 0; value < 16; value++) {
+      assertEquals(value, Histogram.bucketOf(value));
+      assertEquals(value, Histogram.highestValueOf(value));
+    }
+  }
+
+  @Test
+  public void splitsEachPowerOfTwoIntoSubBuckets() {
+    assertEquals(16, Histogram.bucketOf(16));
+    assertEquals(31, Histogram.bucketOf(31));
+    assertEquals(32, Histogram.bucketOf(32));
+    assertEquals(32, Histogram.bucketOf(33));
+    assertEquals(33, Histogram.highestValueOf(32));
+    assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.bucketOf(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void boundsTheRelativeErrorOfBuckets() {
+    int previous = 0;
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      final int  bucket  = Histogram.bucketOf(value);
+      final long highest = Histogram.highestValueOf(bucket);
+
+      assertTrue(bucket >= previous);
+      assertTrue(value <= highest);
+      assertTrue(highest - value <= value / 16);
+
+      previous = bucket;
+    }
+  }
+
+  @Test
+  public void reportsPercentilesInMilliseconds() {
+    final Histogram histogram = new Histogram("test");
+    for (long millis = 1; millis <= 100; millis++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    assertEquals(100, histogram.count(), 0);
+    assertEquals(100, histogram.max(), 0);
+
+    final double median = histogram.percentile(0.5);
+    assertTrue("p50: " + median, median >= 50 && median <= 50 * 1.0625);
+
+    final double p99 = histogram.percentile(0.99);
+    assertTrue("p99: " + p99, p99 >= 99 && p99 <= 100);
+    assertEquals(100, histogram.percentile(1), 0);
+  }
+
+  @Test
+  public void reportsZeroWithoutSamples() {
+    final Histogram histogram = new Histogram("empty");
+
+    assertEquals(0, histogram.count(), 0);
+    assertEquals(0, histogram.percentile(0.99), 0);
+    assertEquals(0, histogram.max(), 0);
+  }
+
+}
@@ -0,0 +1,70 @@
+package io.amberdata.inbound.stellar.configuration.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static org.mockito.Mockito.mock;
+
+import io.amberdata.inbound.stellar.client.HorizonServer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class HistoricalManagerTest {
+
+  @Test
+  public void splitsTheRangeIntoShards() {
+    final HistoricalManager manager = HistoricalManagerTest.manager(100L, 349L, 4, 100L);
+
+    assertTrue(manager.backfillEnabled());
+    assertEquals(
+        Arrays.asList(
+          new LedgerShard(100, 199),
+          new LedgerShard(200, 299),
+          new LedgerShard(300, 349)
+        ),
+        manager.backfillShards()
+    );
+  }
+
+  @Test
+  public void coversASingleLedgerRange() {
+    final HistoricalManager manager = HistoricalManagerTest.manager(100L, 100L, 4, 100L);
+
+    assertTrue(manager.backfillEnabled());
+    assertEquals(Collections.singletonList(new LedgerShard(100, 100)), manager.backfillShards());
+  }
+
+  @Test
+  public void usesShardsOfOneLedgerAtLeast() {
+    final HistoricalManager manager = HistoricalManagerTest.manager(100L, 102L, 4, 0L);
+
+    assertEquals(
+        Arrays.asList(
+          new LedgerShard(100, 100),
+          new LedgerShard(101, 101),
+          new LedgerShard(102, 102)
+        ),
+        manager.backfillShards()
+    );
+  }
+
+  @Test
+  public void backfillsSequentiallyWithoutWorkers() {
+    assertFalse(HistoricalManagerTest.manager(100L, 349L, 0, 100L).backfillEnabled());
+  }
+
+  @Test
+  public void backfillsSequentiallyWithoutEnd() {
+    assertFalse(HistoricalManagerTest.manager(100L, null, 4, 100L).backfillEnabled());
+    assertFalse(HistoricalManagerTest.manager(100L, 99L, 4, 100L).backfillEnabled());
+  }
+
+  private static HistoricalManager manager(Long start, Long end, int workers, long shardSize) {
+    return new HistoricalManager(start, end, workers, shardSize, mock(HorizonServer.class), null);
+  }
+
+}
@@ -0,0 +1,33 @@
+package io.amberdata.inbound.stellar.configuration.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class LedgerShardTest {
+
+  @Test
+  public void startsRightAfterThePreviousLedger() {
+    final LedgerShard shard = new LedgerShard(100, 199);
+
+    // The paging token of ledger 99 is its sequence number shifted by 32 bits.
+    assertEquals("425201762304", shard.getInitialPagingToken());
+    assertEquals(99L, Long.parseLong(shard.getInitialPagingToken()) >>> 32);
+  }
+
+  @Test
+  public void startsFromTheGenesisLedger() {
+    assertEquals("0", new LedgerShard(1, 10).getInitialPagingToken());
+  }
+
+  @Test
+  public void namesItsStateAfterItsRange() {
+    assertEquals("Block-shard-100-199", new LedgerShard(100, 199).getStateName());
+    assertNotEquals(
+        new LedgerShard(100, 199).getStateName(),
+        new LedgerShard(100, 149).getStateName()
+    );
+  }
+
+}
@@ -0,0 +1,104 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import static org.junit.Assert.assertEquals;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+
+import java.time.Duration;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import reactor.core.publisher.Flux;
+
+public class AdaptiveBatchSizeTest {
+
+  private static final long FAST = Duration.ofMillis(10).toNanos();
+  private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+  @Test
+  public void growsWhilePublishingIsFasterThanTheTarget() {
+    final AdaptiveBatchSize batchSize = AdaptiveBatchSizeTest.batchSize("grow", 1000);
+
+    batchSize.adjust(FAST);
+    assertEquals(12, batchSize.get());
+
+    for (int i = 0; i < 20; i++) {
+      batchSize.adjust(FAST);
+    }
+    assertEquals(100, batchSize.get());
+  }
+
+  @Test
+  public void shrinksWhenPublishingIsSlowerThanTheTarget() {
+    final AdaptiveBatchSize batchSize = AdaptiveBatchSizeTest.batchSize("shrink", 1000);
+
+    batchSize.adjust(SLOW);
+    assertEquals(7, batchSize.get());
+
+    for (int i = 0; i < 20; i++) {
+      batchSize.adjust(SLOW);
+    }
+    assertEquals(2, batchSize.get());
+  }
+
+  @Test
+  public void shrinksBackToItsInitialSizeNearTheTip() {
+    final Metrics.Gauge     lag       = Metrics.gauge("adaptive-tip.stream.lag");
+    final AdaptiveBatchSize batchSize = AdaptiveBatchSizeTest.batchSize("tip", 1000);
+
+    for (int i = 0; i < 7; i++) {
+      batchSize.adjust(FAST);
+    }
+    assertEquals(41, batchSize.get());
+
+    lag.set(0);
+    batchSize.adjust(FAST);
+    assertEquals(20, batchSize.get());
+    batchSize.adjust(FAST);
+    assertEquals(10, batchSize.get());
+    batchSize.adjust(FAST);
+    assertEquals(10, batchSize.get());
+  }
+
+  @Test
+  public void closesBatchesAtTheInitialSizeNearTheTip() {
+    final Metrics.Gauge     lag       = Metrics.gauge("adaptive-buffer.stream.lag");
+    final AdaptiveBatchSize batchSize = AdaptiveBatchSizeTest.batchSize("buffer", 1000);
+    for (int i = 0; i < 4; i++) {
+      batchSize.adjust(FAST);
+    }
+    assertEquals(22, batchSize.get());
+
+    assertEquals(Arrays.asList(22, 3), AdaptiveBatchSizeTest.batchSizes(batchSize, 25));
+
+    lag.set(0);
+    assertEquals(Arrays.asList(10, 10, 5), AdaptiveBatchSizeTest.batchSizes(batchSize, 25));
+  }
+
+  private static AdaptiveBatchSize batchSize(String name, long lag) {
+    final Metrics.Gauge lagGauge = Metrics.gauge("adaptive-" + name + ".stream.lag");
+    lagGauge.set(lag);
+
+    return new AdaptiveBatchSize(
+      "adaptive-" + name,
+      10,
+      2,
+      100,
+      Duration.ofSeconds(1),
+      lagGauge,
+      10
+    );
+  }
+
+  private static List<Integer> batchSizes(AdaptiveBatchSize batchSize, int records) {
+    return Flux.range(1, records)
+      .transform(batchSize::buffer)
+      .map(List::size)
+      .collectList()
+      .block();
+  }
+
+}
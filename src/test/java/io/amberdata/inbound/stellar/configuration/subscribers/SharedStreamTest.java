@@ -0,0 +1,158 @@
+package io.amberdata.inbound.stellar.configuration.subscribers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.amberdata.inbound.stellar.client.Metrics;
+import io.amberdata.inbound.stellar.configuration.properties.HorizonServerProperties;
+
+import java.io.Closeable;
+
+import java.time.Duration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.Test;
+
+import org.stellar.sdk.requests.RequestBuilder;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+public class SharedStreamTest {
+
+  private static final int RECORDS     = 1000;
+  private static final int BUFFER_SIZE = 16;
+
+  private final AtomicInteger pageCount = new AtomicInteger();
+
+  private List<Long>      network = LongStream.rangeClosed(1, RECORDS)
+      .boxed()
+      .collect(Collectors.toList());
+  private volatile String streamCursor;
+
+  @Test
+  public void resumesSlowConsumerWithPagesWithoutFailingTheOthers() throws Exception {
+    final SharedStream<Long> stream = this.stream("test");
+
+    final CompletableFuture<List<Long>> fast = stream
+        .register("fast", () -> "0")
+        .take(RECORDS)
+        .collectList()
+        .toFuture();
+
+    final CompletableFuture<List<Long>> slow = stream
+        .register("slow", () -> "0")
+        .concatMap(record -> Mono.just(record).delayElement(Duration.ofMillis(1)))
+        .take(RECORDS)
+        .collectList()
+        .toFuture();
+
+    stream.connect();
+
+    assertEquals(this.network, fast.get(30, TimeUnit.SECONDS));
+    assertEquals(this.network, slow.get(30, TimeUnit.SECONDS));
+
+    // Only the slow consumer overflowed its buffer and caught up with pages.
+    assertEquals(0, Metrics.counter("test.fast.stream.overflows").value(), 0);
+    assertTrue(Metrics.counter("test.slow.stream.overflows").value() > 0);
+    assertTrue(this.pageCount.get() > 0);
+  }
+
+  @Test
+  public void catchesUpConsumersFarBehindWithPagesBeforeStreaming() throws Exception {
+    // Paging tokens of ledgers have their sequence number in their upper 32 bits.
+    this.network = LongStream.rangeClosed(1, 500)
+      .map(ledger -> ledger << 32)
+      .boxed()
+      .collect(Collectors.toList());
+
+    final SharedStream<Long> stream = this.stream("far");
+
+    final CompletableFuture<List<Long>> behind = stream
+        .register("behind", () -> "0")
+        .take(500)
+        .collectList()
+        .toFuture();
+
+    stream.connect();
+
+    assertEquals(this.network, behind.get(30, TimeUnit.SECONDS));
+
+    // The stream was opened from the tip, the consumer caught up with its own pages.
+    assertEquals(String.valueOf(500L << 32), this.streamCursor);
+    assertTrue(this.pageCount.get() >= 3);
+    assertEquals(0, Metrics.gauge("far.behind.stream.lag").value(), 0);
+  }
+
+  private SharedStream<Long> stream(String name) {
+    return new SharedStream<>(
+        name,
+        this::subscribe,
+        this::fetch,
+        String::valueOf,
+        SharedStreamTest.errorsHandler(),
+        BUFFER_SIZE,
+        10,
+        Schedulers.elastic()
+    );
+  }
+
+  private Closeable subscribe(
+      String                      cursorPointer,
+      Consumer<Long>              responseConsumer,
+      Consumer<? super Throwable> errorConsumer
+  ) {
+    final AtomicBoolean closed = new AtomicBoolean();
+    this.streamCursor = cursorPointer;
+
+    final Thread emitter = new Thread(
+        () -> {
+          for (Long record : this.network) {
+            if (closed.get()) {
+              return;
+            }
+            if (record > Long.parseLong(cursorPointer)) {
+              responseConsumer.accept(record);
+            }
+          }
+        }
+    );
+    emitter.setDaemon(true);
+    emitter.start();
+
+    return () -> closed.set(true);
+  }
+
+  private List<Long> fetch(String cursorPointer, RequestBuilder.Order order, int limit) {
+    if (order == RequestBuilder.Order.DESC) {
+      return Collections.singletonList(this.network.get(this.network.size() - 1));
+    }
+
+    this.pageCount.incrementAndGet();
+
+    final long cursor = Long.parseLong(cursorPointer);
+    return this.network.stream()
+      .filter(record -> record > cursor)
+      .limit(limit)
+      .collect(Collectors.toList());
+  }
+
+  private static SubscriberErrorsHandler errorsHandler() {
+    final HorizonServerProperties properties = new HorizonServerProperties();
+    properties.setRetriesOnError(0);
+    properties.setBackOffTimeoutInitial(Duration.ofMillis(10));
+    properties.setBackOffTimeoutMax(Duration.ofSeconds(1));
+    properties.setIdleTimeoutMultiplier(60.0);
+    return new SubscriberErrorsHandler(properties);
+  }
+
+}